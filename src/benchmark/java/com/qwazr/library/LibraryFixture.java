@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Writes a set of etc files declaring a given number of libraries spread over a given number of files.
+ */
+class LibraryFixture implements AutoCloseable {
+
+    final Path dataDirectory;
+    final Path etcDirectory;
+    final List<Path> etcFiles;
+    final String[] names;
+
+    LibraryFixture(final int libraryCount, final int fileCount) throws IOException {
+        dataDirectory = Files.createTempDirectory("library-bench-data");
+        etcDirectory = Files.createTempDirectory("library-bench-etc");
+        etcFiles = new ArrayList<>(fileCount);
+        names = new String[libraryCount];
+        for (int i = 0; i < libraryCount; i++)
+            names[i] = "library" + i;
+        for (int f = 0; f < fileCount; f++) {
+            final Path etcFile = etcDirectory.resolve("library" + f + ".json");
+            write(etcFile, f, fileCount);
+            etcFiles.add(etcFile);
+        }
+    }
+
+    private void write(final Path etcFile, final int fileIndex, final int fileCount) throws IOException {
+        final StringBuilder sb = new StringBuilder("{\"library\":{");
+        boolean first = true;
+        for (int i = fileIndex; i < names.length; i += fileCount) {
+            if (!first)
+                sb.append(',');
+            first = false;
+            sb.append('"')
+                    .append(names[i])
+                    .append("\":{\"class\":\"")
+                    .append(BenchmarkLibrary.class.getName())
+                    .append("\",\"param\":")
+                    .append(i)
+                    .append('}');
+        }
+        sb.append("}}");
+        Files.write(etcFile, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    LibraryManager newLibraryManager() {
+        return new LibraryManager(dataDirectory, etcFiles);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (final Path directory : new Path[] { etcDirectory, dataDirectory })
+            try (final Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                    try {
+                        Files.delete(path);
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+    }
+}
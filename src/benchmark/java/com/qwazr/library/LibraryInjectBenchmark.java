@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.qwazr.library.annotations.Library;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LibraryInjectBenchmark {
+
+    private LibraryFixture fixture;
+    private LibraryManager libraryManager;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        fixture = new LibraryFixture(10, 1);
+        libraryManager = fixture.newLibraryManager();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        libraryManager.close();
+        fixture.close();
+    }
+
+    public static class Shallow {
+
+        @Library("library0")
+        BenchmarkLibrary library0;
+    }
+
+    public static class Level1 {
+
+        @Library("library0")
+        BenchmarkLibrary library0;
+
+        String notInjected1;
+    }
+
+    public static class Level2 extends Level1 {
+
+        @Library("library1")
+        BenchmarkLibrary library1;
+
+        String notInjected2;
+    }
+
+    public static class Level3 extends Level2 {
+
+        @Library("library2")
+        BenchmarkLibrary library2;
+
+        String notInjected3;
+    }
+
+    public static class Level4 extends Level3 {
+
+        @Library("library3")
+        BenchmarkLibrary library3;
+
+        String notInjected4;
+    }
+
+    public static class Level5 extends Level4 {
+
+        @Library("library4")
+        BenchmarkLibrary library4;
+
+        String notInjected5;
+    }
+
+    public static class Level6 extends Level5 {
+
+        @Library("library5")
+        BenchmarkLibrary library5;
+
+        String notInjected6;
+    }
+
+    public static class Level7 extends Level6 {
+
+        @Library("library6")
+        BenchmarkLibrary library6;
+
+        String notInjected7;
+    }
+
+    public static class Deep extends Level7 {
+
+        @Library("library7")
+        BenchmarkLibrary library7;
+
+        @Library("missing")
+        BenchmarkLibrary missing;
+    }
+
+    private final Shallow shallow = new Shallow();
+    private final Deep deep = new Deep();
+
+    @Benchmark
+    public Object injectShallow() {
+        libraryManager.inject(shallow);
+        return shallow;
+    }
+
+    @Benchmark
+    public Object injectDeep() {
+        libraryManager.inject(deep);
+        return deep;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a full startup over many etc files, and the reload of a single file among many.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LibraryLoadBenchmark {
+
+    @Param({ "10", "100", "1000", "10000" })
+    int libraryCount;
+
+    @Param({ "1", "10", "100" })
+    int fileCount;
+
+    private LibraryFixture fixture;
+    private LibraryManager libraryManager;
+    private Path reloadedFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        fixture = new LibraryFixture(libraryCount, fileCount);
+        libraryManager = fixture.newLibraryManager();
+        reloadedFile = fixture.etcFiles.get(fixture.etcFiles.size() / 2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        libraryManager.close();
+        fixture.close();
+    }
+
+    @Benchmark
+    public int startup() {
+        try (final LibraryManager manager = fixture.newLibraryManager()) {
+            return manager.size();
+        }
+    }
+
+    @Benchmark
+    public int reloadOneFile() {
+        libraryManager.loadLibrarySet(reloadedFile);
+        return libraryManager.size();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LibraryLookupBenchmark {
+
+    @Param({ "10", "1000", "10000" })
+    int libraryCount;
+
+    private LibraryFixture fixture;
+    LibraryManager libraryManager;
+    String[] names;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        fixture = new LibraryFixture(libraryCount, 10);
+        libraryManager = fixture.newLibraryManager();
+        names = fixture.names;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        libraryManager.close();
+        fixture.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int position;
+
+        String next(final String[] names) {
+            final int pos = position++;
+            if (position == names.length)
+                position = 0;
+            return names[pos];
+        }
+    }
+
+    @Benchmark
+    public LibraryInterface getLibrary(final Cursor cursor) {
+        return libraryManager.getLibrary(cursor.next(names));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public LibraryInterface getLibraryContended(final Cursor cursor) {
+        return libraryManager.getLibrary(cursor.next(names));
+    }
+
+    @Benchmark
+    public Map<String, String> getLibraries() {
+        return libraryManager.getLibraries();
+    }
+}
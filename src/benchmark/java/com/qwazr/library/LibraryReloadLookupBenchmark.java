@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the library lookup while another thread keeps reloading an etc file.
+ * The readers never take a lock: the "manyReadersWhileReloading" group runs 128 readers against one writer.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class LibraryReloadLookupBenchmark {
+
+    @Param({ "1000" })
+    int libraryCount;
+
+    private LibraryFixture fixture;
+    private LibraryManager libraryManager;
+    private String[] names;
+    private Path reloadedFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        fixture = new LibraryFixture(libraryCount, 10);
+        libraryManager = fixture.newLibraryManager();
+        names = fixture.names;
+        reloadedFile = fixture.etcFiles.get(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        libraryManager.close();
+        fixture.close();
+    }
+
+    @Benchmark
+    @Group("lookupWhileReloading")
+    @GroupThreads(7)
+    public LibraryInterface lookup(final LibraryLookupBenchmark.Cursor cursor) {
+        return libraryManager.getLibrary(cursor.next(names));
+    }
+
+    @Benchmark
+    @Group("lookupWhileReloading")
+    @GroupThreads(1)
+    public int reload() {
+        libraryManager.loadLibrarySet(reloadedFile);
+        return libraryManager.size();
+    }
+
+    @Benchmark
+    @Group("manyReadersWhileReloading")
+    @GroupThreads(64)
+    public LibraryInterface manyReadersLookup(final LibraryLookupBenchmark.Cursor cursor) {
+        return libraryManager.getLibrary(cursor.next(names));
+    }
+
+    @Benchmark
+    @Group("manyReadersWhileReloading")
+    @GroupThreads(64)
+    public int manyReadersGetLibraries() {
+        return libraryManager.getLibraries().size();
+    }
+
+    @Benchmark
+    @Group("manyReadersWhileReloading")
+    @GroupThreads(1)
+    public int manyReadersReload() {
+        libraryManager.loadLibrarySet(reloadedFile);
+        return libraryManager.size();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.component;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The invocation of a method of a component:
+ * <pre>
+ * {"component": "com.qwazr.component.HelloWorld", "method": "print", "arguments": ["Hello"]}
+ * </pre>
+ */
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+@JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.PUBLIC_ONLY,
+        getterVisibility = JsonAutoDetect.Visibility.NONE,
+        isGetterVisibility = JsonAutoDetect.Visibility.NONE)
+public class ComponentCall {
+
+    /**
+     * The class name of the component
+     */
+    @JsonProperty("component")
+    final public String component;
+
+    @JsonProperty("method")
+    final public String method;
+
+    /**
+     * The arguments, converted to the types of the parameters
+     */
+    @JsonProperty("arguments")
+    final public List<Object> arguments;
+
+    @JsonCreator
+    public ComponentCall(@JsonProperty("component") final String component,
+                         @JsonProperty("method") final String method,
+                         @JsonProperty("arguments") final List<Object> arguments) {
+        this.component = component;
+        this.method = method;
+        this.arguments = arguments == null ? Collections.emptyList() : arguments;
+    }
+
+    public ComponentCall(final String component, final String method, final Object... arguments) {
+        this(component, method, Arrays.asList(arguments));
+    }
+
+    @Override
+    public String toString() {
+        return component + '.' + method + arguments;
+    }
+
+    /**
+     * The returned value of a call, or the error message if the call failed
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.PUBLIC_ONLY,
+            getterVisibility = JsonAutoDetect.Visibility.NONE,
+            isGetterVisibility = JsonAutoDetect.Visibility.NONE)
+    public static class Result {
+
+        @JsonProperty("result")
+        final public Object result;
+
+        @JsonProperty("error")
+        final public String error;
+
+        @JsonCreator
+        public Result(@JsonProperty("result") final Object result, @JsonProperty("error") final String error) {
+            this.result = result;
+            this.error = error;
+        }
+
+        static Result of(final Object result, final Throwable error) {
+            if (error == null)
+                return new Result(result, null);
+            final String message = error.getMessage();
+            return new Result(null, message == null ? error.getClass().getName() : message);
+        }
+    }
+}
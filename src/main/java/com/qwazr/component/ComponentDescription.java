@@ -88,10 +88,12 @@ public abstract class ComponentDescription {
 	static class LinkMethod extends ComponentDescription {
 
 		private final List<LinkParameter> parameters;
+		final Method method;
 
 		LinkMethod(Method method) {
 			super(method.getName(), method.getAnnotation(Component.class));
 			parameters = getParameters(method);
+			this.method = method;
 		}
 
 		public List<LinkParameter> getParameters() {
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.component;
+
+/**
+ * A registered component, known by its class name only.
+ * The class is loaded, described and instantiated on first use, exactly once even with concurrent callers.
+ */
+final class ComponentEntry {
+
+    final String className;
+    private final ClassLoader classLoader;
+    private volatile Class<? extends ComponentInterface> type;
+    private volatile ComponentDescription.LinkClass description;
+    private volatile ComponentInterface instance;
+
+    ComponentEntry(final String className, final ClassLoader classLoader) {
+        this.className = className;
+        this.classLoader = classLoader;
+    }
+
+    ComponentEntry(final ComponentInterface instance) {
+        this.className = instance.getClass().getName();
+        this.classLoader = instance.getClass().getClassLoader();
+        this.type = instance.getClass();
+        this.instance = instance;
+    }
+
+    Class<? extends ComponentInterface> getType() {
+        final Class<? extends ComponentInterface> current = type;
+        return current != null ? current : loadType();
+    }
+
+    private synchronized Class<? extends ComponentInterface> loadType() {
+        if (type != null)
+            return type;
+        try {
+            type = Class.forName(className, false, classLoader).asSubclass(ComponentInterface.class);
+            return type;
+        }
+        catch (ClassNotFoundException | ClassCastException e) {
+            throw new IllegalStateException("Cannot load the component " + className, e);
+        }
+    }
+
+    ComponentDescription.LinkClass getDescription() {
+        final ComponentDescription.LinkClass current = description;
+        return current != null ? current : describe();
+    }
+
+    private synchronized ComponentDescription.LinkClass describe() {
+        if (description == null)
+            description = new ComponentDescription.LinkClass(getType());
+        return description;
+    }
+
+    ComponentInterface getInstance() {
+        final ComponentInterface current = instance;
+        return current != null ? current : instantiate();
+    }
+
+    private synchronized ComponentInterface instantiate() {
+        if (instance != null)
+            return instance;
+        try {
+            instance = getType().getConstructor().newInstance();
+            return instance;
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create the component " + className, e);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.component;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.qwazr.utils.ObjectMappers;
+
+import java.io.Closeable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Invoke the public methods of the registered components.
+ * A method is resolved by its name and its number of arguments, and the resolution is cached as a
+ * {@link MethodHandle} bound to the component instance.
+ * <p>
+ * The asynchronous calls and the batches run on a bounded pool. When its queue is full,
+ * the calls run in the calling thread, which slows down the producer instead of rejecting the calls.
+ */
+final class ComponentInvoker implements Closeable {
+
+    private final Function<String, ComponentDescription.LinkClass> components;
+    private final Function<String, ComponentInterface> instances;
+    private final ConcurrentHashMap<Signature, Target[]> targets;
+    private final ThreadPoolExecutor executor;
+
+    ComponentInvoker(final Function<String, ComponentDescription.LinkClass> components,
+                     final Function<String, ComponentInterface> instances,
+                     final int parallelism) {
+        this.components = components;
+        this.instances = instances;
+        this.targets = new ConcurrentHashMap<>();
+        final AtomicInteger threadCounter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 1, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<>(parallelism * 64), runnable -> {
+            final Thread thread = new Thread(runnable, "component-invoker-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    Object invoke(final ComponentCall call) throws Exception {
+        final Target[] candidates = targets.computeIfAbsent(
+                new Signature(call.component, call.method, call.arguments.size()), this::resolve);
+        final Target target = select(call, candidates);
+        final Object[] arguments = new Object[target.parameterTypes.length];
+        for (int i = 0; i < arguments.length; i++)
+            arguments[i] = convert(call.arguments.get(i), target.parameterTypes[i]);
+        try {
+            return (Object) target.handle.invokeExact(arguments);
+        }
+        catch (Exception | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    CompletableFuture<Object> invokeAsync(final ComponentCall call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return invoke(call);
+            }
+            catch (RuntimeException e) {
+                throw e;
+            }
+            catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Submit every call in order, and collect the results in the same order.
+     * A failed call does not stop the others, its result contains the error.
+     */
+    CompletableFuture<List<ComponentCall.Result>> invokeBatch(final List<ComponentCall> calls) {
+        final List<CompletableFuture<ComponentCall.Result>> futures = new ArrayList<>(calls.size());
+        for (final ComponentCall call : calls)
+            futures.add(invokeAsync(call).handle((result, error) -> ComponentCall.Result.of(result,
+                    error instanceof CompletionException && error.getCause() != null ? error.getCause() : error)));
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(v -> {
+            final List<ComponentCall.Result> results = new ArrayList<>(futures.size());
+            futures.forEach(future -> results.add(future.join()));
+            return results;
+        });
+    }
+
+    private Target[] resolve(final Signature signature) {
+        final ComponentDescription.LinkClass linkClass = components.apply(signature.component);
+        final ComponentInterface instance = instances.apply(signature.component);
+        if (linkClass == null || instance == null)
+            throw new IllegalArgumentException("Unknown component: " + signature.component);
+        final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        final List<Target> candidates = new ArrayList<>();
+        for (final ComponentDescription.LinkMethod linkMethod : linkClass.getMethods()) {
+            final Method method = linkMethod.method;
+            if (!method.getName().equals(signature.method) || method.getParameterCount() != signature.arity ||
+                    !Modifier.isPublic(method.getModifiers()))
+                continue;
+            try {
+                MethodHandle handle = lookup.unreflect(method);
+                if (!Modifier.isStatic(method.getModifiers()))
+                    handle = handle.bindTo(instance);
+                handle = handle.asType(handle.type().generic()).asSpreader(Object[].class, signature.arity);
+                candidates.add(new Target(method, handle));
+            }
+            catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("The method is not accessible: " + method, e);
+            }
+        }
+        if (candidates.isEmpty())
+            throw new IllegalArgumentException(
+                    "Unknown method: " + signature.component + '.' + signature.method + '/' + signature.arity);
+        return candidates.toArray(new Target[0]);
+    }
+
+    /**
+     * Choose between the overloaded methods with the same number of parameters:
+     * the first one whose parameter types accept the arguments without conversion, or the only one.
+     */
+    private static Target select(final ComponentCall call, final Target[] candidates) {
+        if (candidates.length == 1)
+            return candidates[0];
+        for (final Target target : candidates) {
+            boolean match = true;
+            for (int i = 0; i < target.parameterTypes.length && match; i++) {
+                final Object argument = call.arguments.get(i);
+                final Class<?> type = target.parameterTypes[i].getRawClass();
+                match = argument == null ? !type.isPrimitive() :
+                        MethodType.methodType(type).wrap().returnType().isInstance(argument);
+            }
+            if (match)
+                return target;
+        }
+        throw new IllegalArgumentException("Ambiguous call: " + call);
+    }
+
+    private static Object convert(final Object argument, final JavaType type) {
+        if (argument == null || (!type.hasGenericTypes() && type.getRawClass().isInstance(argument)))
+            return argument;
+        return ObjectMappers.JSON.convertValue(argument, type);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private static final class Signature {
+
+        private final String component;
+        private final String method;
+        private final int arity;
+
+        private Signature(final String component, final String method, final int arity) {
+            this.component = component;
+            this.method = method;
+            this.arity = arity;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Signature))
+                return false;
+            final Signature s = (Signature) o;
+            return arity == s.arity && Objects.equals(component, s.component) && Objects.equals(method, s.method);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(component, method, arity);
+        }
+    }
+
+    private static final class Target {
+
+        private final MethodHandle handle;
+        private final JavaType[] parameterTypes;
+
+        private Target(final Method method, final MethodHandle handle) {
+            this.handle = handle;
+            this.parameterTypes = new JavaType[method.getParameterCount()];
+            for (int i = 0; i < parameterTypes.length; i++)
+                parameterTypes[i] = ObjectMappers.JSON.getTypeFactory().constructType(method.getGenericParameterTypes()[i]);
+        }
+    }
+}
@@ -15,31 +15,202 @@
  */
 package com.qwazr.component;
 
+import com.qwazr.utils.LoggerUtils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ComponentsManager implements Closeable {
 
-public class ComponentsManager {
+    private static final Logger LOGGER = LoggerUtils.getLogger(ComponentsManager.class);
 
-    private final ConcurrentHashMap<String, ComponentDescription.LinkClass> components;
+    private static final String SERVICES_INDEX = "META-INF/services/" + ComponentInterface.class.getName();
+
+    private final ConcurrentHashMap<String, ComponentEntry> entries;
+    private final Map<String, ComponentDescription.LinkClass> components;
+    private final ComponentInvoker invoker;
+    private final ComponentsServiceInterface service;
 
     public ComponentsManager() {
-        components = new ConcurrentHashMap<>();
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param parallelism the maximum number of asynchronous calls running concurrently
+     */
+    public ComponentsManager(final int parallelism) {
+        entries = new ConcurrentHashMap<>();
+        components = new ComponentsView();
+        invoker = new ComponentInvoker(this::getDescription, this::getInstance, Math.max(1, parallelism));
+        service = new ComponentsServiceImpl(this);
     }
 
+    /**
+     * Register the components listed in the service provider files.
+     * Only the class names are read: a component is loaded, described and instantiated on its first use.
+     *
+     * @return the current instance
+     */
     public ComponentsManager registerServices() {
-        ServiceLoader.load(ComponentInterface.class, Thread.currentThread().getContextClassLoader())
-                .forEach(this::register);
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            final Enumeration<URL> indexes = classLoader.getResources(SERVICES_INDEX);
+            while (indexes.hasMoreElements())
+                registerIndex(indexes.nextElement(), classLoader);
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.SEVERE, e, () -> "Cannot list the components");
+        }
         return this;
     }
 
+    private void registerIndex(final URL index, final ClassLoader classLoader) {
+        try (final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(index.openStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int comment = line.indexOf('#');
+                final String className = (comment == -1 ? line : line.substring(0, comment)).trim();
+                if (!className.isEmpty())
+                    entries.putIfAbsent(className, new ComponentEntry(className, classLoader));
+            }
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.SEVERE, e, () -> "Cannot read the component index " + index);
+        }
+    }
+
     final void register(ComponentInterface componentClass) {
-        final ComponentDescription.LinkClass linkClass = new ComponentDescription.LinkClass(componentClass.getClass());
-        components.put(linkClass.getName(), linkClass);
+        final ComponentEntry entry = new ComponentEntry(componentClass);
+        entries.put(entry.className, entry);
     }
 
+    /**
+     * The descriptions are built when they are read
+     *
+     * @return a read-only view of the components, by class name
+     */
     final public Map<String, ComponentDescription.LinkClass> getComponents() {
         return components;
     }
 
+    private ComponentDescription.LinkClass getDescription(final String className) {
+        final ComponentEntry entry = entries.get(className);
+        return entry == null ? null : entry.getDescription();
+    }
+
+    private ComponentInterface getInstance(final String className) {
+        final ComponentEntry entry = entries.get(className);
+        return entry == null ? null : entry.getInstance();
+    }
+
+    /**
+     * Call a public method of a registered component. The arguments are converted to the parameter types.
+     *
+     * @param call the component, the method and the arguments
+     * @return the value returned by the method, or null
+     * @throws IllegalArgumentException if the component or the method is unknown
+     * @throws Exception                the exception thrown by the method
+     */
+    final public Object invoke(final ComponentCall call) throws Exception {
+        return invoker.invoke(call);
+    }
+
+    /**
+     * Call a public method of a registered component on the pool of the manager
+     *
+     * @param call the component, the method and the arguments
+     * @return the future value returned by the method
+     */
+    final public CompletableFuture<Object> invokeAsync(final ComponentCall call) {
+        return invoker.invokeAsync(call);
+    }
+
+    /**
+     * Pipeline a list of calls on the pool of the manager
+     *
+     * @param calls the list of calls
+     * @return the future results, in the order of the calls
+     */
+    final public CompletableFuture<List<ComponentCall.Result>> invokeBatch(final List<ComponentCall> calls) {
+        return invoker.invokeBatch(calls);
+    }
+
+    final public ComponentsServiceInterface getService() {
+        return service;
+    }
+
+    @Override
+    public void close() {
+        invoker.close();
+    }
+
+    private final class ComponentsView extends AbstractMap<String, ComponentDescription.LinkClass> {
+
+        @Override
+        public ComponentDescription.LinkClass get(final Object key) {
+            return key instanceof String ? getDescription((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return key != null && entries.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return Collections.unmodifiableSet(entries.keySet());
+        }
+
+        @Override
+        public Set<Entry<String, ComponentDescription.LinkClass>> entrySet() {
+            return new AbstractSet<>() {
+
+                @Override
+                public Iterator<Entry<String, ComponentDescription.LinkClass>> iterator() {
+                    final Iterator<ComponentEntry> iterator = entries.values().iterator();
+                    return new Iterator<>() {
+
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, ComponentDescription.LinkClass> next() {
+                            final ComponentEntry entry = iterator.next();
+                            return new SimpleImmutableEntry<>(entry.className, entry.getDescription());
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return entries.size();
+                }
+            };
+        }
+    }
+
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.component;
+
+import com.qwazr.server.AbstractServiceImpl;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.container.AsyncResponse;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+public class ComponentsServiceImpl extends AbstractServiceImpl implements ComponentsServiceInterface {
+
+    private final ComponentsManager componentsManager;
+
+    public ComponentsServiceImpl(final ComponentsManager componentsManager) {
+        this.componentsManager = componentsManager;
+    }
+
+    @Override
+    public Set<String> getComponents() {
+        return Collections.unmodifiableSet(componentsManager.getComponents().keySet());
+    }
+
+    @Override
+    public ComponentCall.Result invoke(final ComponentCall call) {
+        if (call == null)
+            throw new BadRequestException("The call is missing");
+        try {
+            return ComponentCall.Result.of(componentsManager.invoke(call), null);
+        }
+        catch (Exception e) {
+            return ComponentCall.Result.of(null, e);
+        }
+    }
+
+    @Override
+    public void invokeBatch(final List<ComponentCall> calls, final AsyncResponse asyncResponse) {
+        if (calls == null || calls.isEmpty()) {
+            asyncResponse.resume(Collections.emptyList());
+            return;
+        }
+        componentsManager.invokeBatch(calls).whenComplete((results, error) -> {
+            if (error != null)
+                asyncResponse.resume(error);
+            else
+                asyncResponse.resume(results);
+        });
+    }
+}
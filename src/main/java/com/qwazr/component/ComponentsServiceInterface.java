@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.component;
+
+import com.qwazr.server.ServiceInterface;
+
+import javax.annotation.security.RolesAllowed;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import java.util.List;
+import java.util.Set;
+
+@Path("/" + ComponentsServiceInterface.SERVICE_NAME)
+@RolesAllowed(ComponentsServiceInterface.SERVICE_NAME)
+public interface ComponentsServiceInterface extends ServiceInterface {
+
+    String SERVICE_NAME = "components";
+
+    /**
+     * @return the class names of the registered components
+     */
+    @GET
+    @Path("/")
+    @Produces(ServiceInterface.APPLICATION_JSON_UTF8)
+    Set<String> getComponents();
+
+    /**
+     * Call a method of a component
+     *
+     * @param call the component, the method and the arguments
+     * @return the returned value, or the error
+     */
+    @POST
+    @Path("/_invoke")
+    @Consumes(ServiceInterface.APPLICATION_JSON_UTF8)
+    @Produces(ServiceInterface.APPLICATION_JSON_UTF8)
+    ComponentCall.Result invoke(ComponentCall call);
+
+    /**
+     * Run a list of calls concurrently. The response is sent when every call is done.
+     *
+     * @param calls         the list of calls
+     * @param asyncResponse resumed with the list of results, in the order of the calls
+     */
+    @POST
+    @Path("/_batch")
+    @Consumes(ServiceInterface.APPLICATION_JSON_UTF8)
+    @Produces(ServiceInterface.APPLICATION_JSON_UTF8)
+    void invokeBatch(List<ComponentCall> calls, @Suspended AsyncResponse asyncResponse);
+}
@@ -15,12 +15,52 @@
  */
 package com.qwazr.library;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+
 public abstract class AbstractLibrary implements LibraryInterface {
 
 	protected volatile LibraryManager libraryManager;
 
+	/**
+	 * Load the library on first use
+	 */
+	@JsonProperty("lazy")
+	protected boolean lazy;
+
+	/**
+	 * The names of the libraries loaded before this library
+	 */
+	@JsonProperty("dependencies")
+	protected Set<String> dependencies;
+
+	/**
+	 * The maximum time given to the load, overriding the timeout of the manager
+	 */
+	@JsonProperty("load_timeout_ms")
+	protected Long loadTimeoutMs;
+
 	@Override
 	final public void load(final LibraryManager libraryManager) {
 		this.libraryManager = libraryManager;
 	}
+
+	@Override
+	public boolean isLazy() {
+		return lazy;
+	}
+
+	@Override
+	public Collection<String> getDependencies() {
+		return dependencies == null ? Collections.emptySet() : dependencies;
+	}
+
+	@Override
+	public Duration getLoadTimeout() {
+		return loadTimeoutMs == null ? null : Duration.ofMillis(loadTimeoutMs);
+	}
 }
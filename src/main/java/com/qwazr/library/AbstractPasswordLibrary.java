@@ -19,10 +19,22 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 public abstract class AbstractPasswordLibrary extends AbstractLibrary {
 
+    /**
+     * The password as written in the configuration file: either the clear password,
+     * or, if {@link #passwordEncrypted} is set, an encrypted value "ENC(...)" which is decrypted by {@link #getPassword()}
+     */
     protected String password = null;
 
     /**
-     * Obfuscated password
+     * True if the password is encrypted. A clear password is never decrypted, even if it looks like "ENC(...)".
+     */
+    @JsonProperty("password_encrypted")
+    protected boolean passwordEncrypted = false;
+
+    private volatile LibrarySecret secret;
+
+    /**
+     * Clear or encrypted password ("ENC(...)" with "password_encrypted": true)
      *
      * @param password
      */
@@ -31,4 +43,32 @@ public abstract class AbstractPasswordLibrary extends AbstractLibrary {
         this.password = password;
     }
 
+    /**
+     * Called by the manager when the library is loaded.
+     * The same encrypted value is decrypted only once for all the libraries.
+     *
+     * @param secrets the secrets of the manager
+     */
+    final void resolveSecret(final LibrarySecrets secrets) {
+        if (!passwordEncrypted || password == null) {
+            secret = null;
+            return;
+        }
+        if (!LibrarySecrets.isEncrypted(password))
+            throw new IllegalArgumentException("The encrypted password is not written as ENC(...)");
+        secret = secrets.get(password);
+    }
+
+    /**
+     * @return a copy of the decrypted password, which should be cleared after use, or null if there is no password
+     */
+    protected char[] getPassword() {
+        final LibrarySecret current = secret;
+        if (current != null)
+            return current.toChars();
+        if (password == null || passwordEncrypted)
+            return null;
+        return password.toCharArray();
+    }
+
 }
@@ -0,0 +1,459 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.qwazr.utils.LoggerUtils;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A library which lends expensive and non thread-safe objects (parsers, clients, ...) from a pool.
+ * <pre>
+ * "my_parser": {
+ *   "class": "com.example.MyParserLibrary",
+ *   "pool_min": 2,
+ *   "pool_max": 16,
+ *   "pool_idle_timeout_ms": 60000,
+ *   "pool_max_wait_ms": 5000
+ * }
+ * </pre>
+ * Each thread first tries the object it used last, then the shared queue of idle objects,
+ * then creates a new object if the pool is not full. None of these steps takes a lock.
+ * When the pool is full, the thread sleeps until an object is released by another thread.
+ * <p>
+ * The idle objects beyond the minimum are destroyed after the idle timeout.
+ * The statistics of the pool are reported by GET /library/_metrics.
+ * When the library is closed, the idle objects are destroyed, and the borrowed objects are destroyed when released.
+ *
+ * @param <T> the type of the pooled objects
+ */
+public abstract class AbstractPooledLibrary<T> extends AbstractLibrary implements Closeable {
+
+    private static final Logger LOGGER = LoggerUtils.getLogger(AbstractPooledLibrary.class);
+
+    private static final int IDLE = 0;
+    private static final int IN_USE = 1;
+    private static final int REMOVED = 2;
+
+    /**
+     * The number of objects created when the library is loaded, and kept after the idle timeout
+     */
+    @JsonProperty("pool_min")
+    protected int poolMin = 0;
+
+    /**
+     * The maximum number of objects
+     */
+    @JsonProperty("pool_max")
+    protected int poolMax = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * An idle object is destroyed after this delay, 0 to keep the idle objects
+     */
+    @JsonProperty("pool_idle_timeout_ms")
+    protected long poolIdleTimeoutMs = 60_000;
+
+    /**
+     * The maximum time a thread waits for an object when the pool is full
+     */
+    @JsonProperty("pool_max_wait_ms")
+    protected long poolMaxWaitMs = 30_000;
+
+    private final CopyOnWriteArrayList<Item<T>> items = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedDeque<Item<T>> idleItems = new ConcurrentLinkedDeque<>();
+    private final ThreadLocal<Item<T>> lastItem = new ThreadLocal<>();
+    private final Semaphore released = new Semaphore(0);
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder creations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+    private volatile boolean closed;
+    private final AtomicReference<ScheduledFuture<?>> evictionTask = new AtomicReference<>();
+
+    /**
+     * @return a new object for the pool
+     * @throws Exception if the object cannot be created
+     */
+    protected abstract T createObject() throws Exception;
+
+    /**
+     * Release the resources of an object removed from the pool. By default, an {@link AutoCloseable} is closed.
+     *
+     * @param object the object removed from the pool
+     * @throws Exception if the object cannot be destroyed
+     */
+    protected void destroyObject(final T object) throws Exception {
+        if (object instanceof AutoCloseable)
+            ((AutoCloseable) object).close();
+    }
+
+    /**
+     * Create the minimum number of objects, and start the eviction of the idle objects.
+     * A subclass overriding this method must call it.
+     *
+     * @throws IllegalArgumentException if the pool sizes are not consistent
+     */
+    @Override
+    public void load() {
+        if (poolMax < 1)
+            throw new IllegalArgumentException("pool_max must be positive: " + poolMax);
+        if (poolMin < 0 || poolMin > poolMax)
+            throw new IllegalArgumentException(
+                    "pool_min (" + poolMin + ") must be between 0 and pool_max (" + poolMax + ")");
+        for (int i = 0; i < poolMin; i++) {
+            final Item<T> item = newItem();
+            if (item == null)
+                break;
+            item.state.set(IDLE);
+            offerIdle(item);
+        }
+        if (poolIdleTimeoutMs > 0 && poolMax > poolMin) {
+            final long period = Math.max(1000, poolIdleTimeoutMs / 2);
+            evictionTask.set(Evictor.schedule(this::evictIdleObjects, period));
+        }
+    }
+
+    /**
+     * Borrow an object, which must be given back with {@link #release(Object)}.
+     *
+     * @return an object from the pool
+     * @throws InterruptedException if the thread is interrupted while waiting for an object
+     * @throws TimeoutException     if no object has been released during the max wait time
+     * @throws IllegalStateException if the library is closed
+     */
+    public final T borrow() throws InterruptedException, TimeoutException {
+        if (closed)
+            throw new IllegalStateException("The pool is closed");
+        borrows.increment();
+        final Item<T> last = lastItem.get();
+        if (last != null && last.state.compareAndSet(IDLE, IN_USE))
+            return last.object;
+        Item<T> item = pollIdle();
+        if (item == null)
+            item = newItem();
+        if (item == null)
+            item = waitItem();
+        lastItem.set(item);
+        return item.object;
+    }
+
+    /**
+     * Give back an object borrowed with {@link #borrow()}.
+     * The object is queued before the waiters are read, and a waiter is counted before it polls the queue:
+     * either the waiter finds the object, or it is woken up.
+     *
+     * @param object the borrowed object
+     * @throws IllegalArgumentException if the object does not belong to the pool
+     * @throws IllegalStateException    if the object is not borrowed, e.g. already released
+     */
+    public final void release(final T object) {
+        final Item<T> last = lastItem.get();
+        final Item<T> item = last != null && last.object == object ? last : findItem(object);
+        if (item == null)
+            throw new IllegalArgumentException("This object does not belong to the pool");
+        item.lastUsed = System.nanoTime();
+        if (!item.state.compareAndSet(IN_USE, IDLE))
+            throw new IllegalStateException("This object is not borrowed");
+        if (closed) {
+            if (item.state.compareAndSet(IDLE, IN_USE))
+                remove(item);
+            return;
+        }
+        offerIdle(item);
+        if (waiters.get() > 0)
+            released.release();
+    }
+
+    /**
+     * Borrow an object, apply the function, and release the object.
+     *
+     * @param function the function using the object
+     * @param <R>      the type of the result
+     * @param <E>      the exception thrown by the function
+     * @return the result of the function
+     * @throws E                    the exception thrown by the function
+     * @throws InterruptedException if the thread is interrupted while waiting for an object
+     * @throws TimeoutException     if no object has been released during the max wait time
+     */
+    public final <R, E extends Exception> R apply(final PoolFunction<T, R, E> function)
+            throws E, InterruptedException, TimeoutException {
+        final T object = borrow();
+        try {
+            return function.apply(object);
+        }
+        finally {
+            release(object);
+        }
+    }
+
+    private Item<T> findItem(final T object) {
+        for (final Item<T> item : items)
+            if (item.object == object)
+                return item;
+        return null;
+    }
+
+    /**
+     * An item is in the idle queue at most once, even if it has been taken meanwhile from a thread slot.
+     */
+    private void offerIdle(final Item<T> item) {
+        if (item.queued.compareAndSet(false, true))
+            idleItems.offerFirst(item);
+    }
+
+    private Item<T> pollIdle() {
+        Item<T> item;
+        while ((item = idleItems.pollFirst()) != null) {
+            item.queued.set(false);
+            if (item.state.compareAndSet(IDLE, IN_USE))
+                return item;
+        }
+        return null;
+    }
+
+    /**
+     * @return a new item in use, or null if the pool is full
+     */
+    private Item<T> newItem() {
+        for (; ; ) {
+            final int current = size.get();
+            if (current >= poolMax)
+                return null;
+            if (size.compareAndSet(current, current + 1))
+                break;
+        }
+        final T object;
+        try {
+            object = createObject();
+        }
+        catch (Exception e) {
+            size.decrementAndGet();
+            throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+        }
+        final Item<T> item = new Item<>(object);
+        items.add(item);
+        creations.increment();
+        return item;
+    }
+
+    private Item<T> waitItem() throws InterruptedException, TimeoutException {
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(poolMaxWaitMs);
+        waiters.incrementAndGet();
+        try {
+            for (; ; ) {
+                if (closed)
+                    throw new IllegalStateException("The pool is closed");
+                Item<T> item = pollIdle();
+                if (item == null)
+                    item = newItem();
+                if (item != null) {
+                    waitTime.record(System.nanoTime() - start);
+                    return item;
+                }
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !released.tryAcquire(remaining, TimeUnit.NANOSECONDS)) {
+                    timeouts.increment();
+                    throw new TimeoutException("No pooled object has been released within " + poolMaxWaitMs + " ms");
+                }
+            }
+        }
+        finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    private void evictIdleObjects() {
+        final long now = System.nanoTime();
+        final long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(poolIdleTimeoutMs);
+        for (final Item<T> item : items) {
+            if (size.get() <= poolMin)
+                return;
+            if (now - item.lastUsed > idleTimeoutNanos && item.state.compareAndSet(IDLE, IN_USE)) {
+                remove(item);
+                evictions.increment();
+            }
+        }
+    }
+
+    private void remove(final Item<T> item) {
+        item.state.set(REMOVED);
+        if (items.remove(item))
+            size.decrementAndGet();
+        idleItems.remove(item);
+        // A waiter can now create an object
+        if (waiters.get() > 0)
+            released.release();
+        try {
+            destroyObject(item.object);
+        }
+        catch (Exception e) {
+            LOGGER.log(Level.WARNING, e, () -> "Cannot destroy a pooled object");
+        }
+    }
+
+    /**
+     * Destroy the idle objects. The borrowed objects are destroyed when they are released.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        final ScheduledFuture<?> task = evictionTask.getAndSet(null);
+        if (task != null)
+            Evictor.cancel(task);
+        // Wake up the waiters, which throw an IllegalStateException
+        released.release(Math.max(1, waiters.get()));
+        for (final Item<T> item : items)
+            if (item.state.compareAndSet(IDLE, IN_USE))
+                remove(item);
+    }
+
+    @JsonIgnore
+    public PoolStats getPoolStats() {
+        int idle = 0;
+        for (final Item<T> item : items)
+            if (item.state.get() == IDLE)
+                idle++;
+        return new PoolStats(size.get(), idle, waiters.get(), borrows.sum(), creations.sum(), evictions.sum(),
+                timeouts.sum(), LibraryMetrics.HistogramReport.of(waitTime));
+    }
+
+    @FunctionalInterface
+    public interface PoolFunction<T, R, E extends Exception> {
+
+        R apply(T object) throws E;
+    }
+
+    /**
+     * The state and the statistics of the pool. The wait time only counts the borrows which waited for a release.
+     */
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.PUBLIC_ONLY,
+            getterVisibility = JsonAutoDetect.Visibility.NONE,
+            isGetterVisibility = JsonAutoDetect.Visibility.NONE)
+    public static class PoolStats {
+
+        @JsonProperty("size")
+        final public int size;
+
+        @JsonProperty("idle")
+        final public int idle;
+
+        @JsonProperty("waiting")
+        final public int waiting;
+
+        @JsonProperty("borrows")
+        final public long borrows;
+
+        @JsonProperty("creations")
+        final public long creations;
+
+        @JsonProperty("evictions")
+        final public long evictions;
+
+        @JsonProperty("timeouts")
+        final public long timeouts;
+
+        @JsonProperty("wait_time")
+        final public LibraryMetrics.HistogramReport waitTime;
+
+        @JsonCreator
+        PoolStats(@JsonProperty("size") final int size,
+                  @JsonProperty("idle") final int idle,
+                  @JsonProperty("waiting") final int waiting,
+                  @JsonProperty("borrows") final long borrows,
+                  @JsonProperty("creations") final long creations,
+                  @JsonProperty("evictions") final long evictions,
+                  @JsonProperty("timeouts") final long timeouts,
+                  @JsonProperty("wait_time") final LibraryMetrics.HistogramReport waitTime) {
+            this.size = size;
+            this.idle = idle;
+            this.waiting = waiting;
+            this.borrows = borrows;
+            this.creations = creations;
+            this.evictions = evictions;
+            this.timeouts = timeouts;
+            this.waitTime = waitTime;
+        }
+    }
+
+    private static final class Item<T> {
+
+        private final T object;
+        private final AtomicInteger state;
+        private final AtomicBoolean queued;
+        private volatile long lastUsed;
+
+        private Item(final T object) {
+            this.object = object;
+            this.state = new AtomicInteger(IN_USE);
+            this.queued = new AtomicBoolean();
+            this.lastUsed = System.nanoTime();
+        }
+    }
+
+    /**
+     * One thread evicts the idle objects of every pool. It is stopped when the last pool is closed.
+     */
+    private static final class Evictor {
+
+        private static ScheduledExecutorService scheduler;
+        private static int tasks;
+
+        private static synchronized ScheduledFuture<?> schedule(final Runnable task, final long periodMs) {
+            if (scheduler == null)
+                scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    final Thread thread = new Thread(runnable, "library-pool-evictor");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            final ScheduledFuture<?> future =
+                    scheduler.scheduleWithFixedDelay(task, periodMs, periodMs, TimeUnit.MILLISECONDS);
+            tasks++;
+            return future;
+        }
+
+        private static synchronized void cancel(final ScheduledFuture<?> future) {
+            future.cancel(false);
+            if (--tasks == 0) {
+                scheduler.shutdown();
+                scheduler = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * AES-GCM secrets. The cipher text is the Base64 encoding of a 12 bytes IV followed by the encrypted bytes and the tag.
+ * The key comes from an environment variable or from a local key store, standing for a key management service.
+ */
+public final class AesSecretDecryptor implements SecretDecryptor {
+
+    /**
+     * The environment variable used by default, which contains a Base64 encoded AES key (128, 192 or 256 bits)
+     */
+    public static final String DEFAULT_KEY_VARIABLE = "QWAZR_SECRET_KEY";
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+
+    private final SecretKey key;
+
+    public AesSecretDecryptor(final SecretKey key) {
+        this.key = key;
+    }
+
+    /**
+     * @param variable the name of the environment variable containing the Base64 encoded key
+     * @return the decryptor, or null if the variable is not set
+     */
+    public static AesSecretDecryptor fromEnvironment(final String variable) {
+        final String value = System.getenv(variable);
+        if (value == null || value.trim().isEmpty())
+            return null;
+        final byte[] bytes = Base64.getDecoder().decode(value.trim());
+        try {
+            return new AesSecretDecryptor(new SecretKeySpec(bytes, "AES"));
+        }
+        finally {
+            Arrays.fill(bytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Read the key from a key store (PKCS12 or JCEKS). The key store is read once:
+     * the key derivation of the key store password is not repeated when the libraries are reloaded.
+     *
+     * @param keyStoreFile the key store file
+     * @param password     the password of the key store and of the key
+     * @param alias        the alias of the AES key
+     * @return the decryptor
+     * @throws IOException              if the file cannot be read
+     * @throws GeneralSecurityException if the key cannot be read
+     */
+    public static AesSecretDecryptor fromKeyStore(final Path keyStoreFile, final char[] password, final String alias)
+            throws IOException, GeneralSecurityException {
+        final KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        try (final InputStream input = Files.newInputStream(keyStoreFile)) {
+            keyStore.load(input, password);
+        }
+        final Key key = keyStore.getKey(alias, password);
+        if (!(key instanceof SecretKey))
+            throw new GeneralSecurityException("No secret key with the alias " + alias + " in " + keyStoreFile);
+        return new AesSecretDecryptor((SecretKey) key);
+    }
+
+    @Override
+    public byte[] decrypt(final String cipherText) throws GeneralSecurityException {
+        final byte[] bytes = Base64.getDecoder().decode(cipherText.trim());
+        if (bytes.length <= IV_LENGTH)
+            throw new GeneralSecurityException("The encrypted secret is too short");
+        final Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, bytes, 0, IV_LENGTH));
+        return cipher.doFinal(bytes, IV_LENGTH, bytes.length - IV_LENGTH);
+    }
+
+    /**
+     * @param secret the secret to encrypt
+     * @return the value to write in a configuration file, with the "ENC(...)" wrapping
+     * @throws GeneralSecurityException if the secret cannot be encrypted
+     */
+    public String encrypt(final byte[] secret) throws GeneralSecurityException {
+        final byte[] iv = new byte[IV_LENGTH];
+        new SecureRandom().nextBytes(iv);
+        final Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+        final byte[] encrypted = cipher.doFinal(secret);
+        final byte[] bytes = Arrays.copyOf(iv, IV_LENGTH + encrypted.length);
+        System.arraycopy(encrypted, 0, bytes, IV_LENGTH, encrypted.length);
+        return LibrarySecrets.PREFIX + Base64.getEncoder().encodeToString(bytes) + LibrarySecrets.SUFFIX;
+    }
+}
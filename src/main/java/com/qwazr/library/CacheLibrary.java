@@ -0,0 +1,286 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * A bounded cache shared by name, declared in a configuration file:
+ * <pre>
+ * "my_cache": {
+ *   "class": "com.qwazr.library.CacheLibrary",
+ *   "maximum_size": 10000,
+ *   "expire_after_write_ms": 600000,
+ *   "refresh_after_write_ms": 60000
+ * }
+ * </pre>
+ * The eviction policy is W-TinyLFU, which keeps the frequently used entries and adapts to recency-biased workloads.
+ * With "maximum_weight", the weight of a value is its length for a byte array, a byte buffer or a char sequence,
+ * its size for a collection or a map, the value returned by {@link Weighted#getWeight()}, otherwise 1.
+ * <p>
+ * An entry loaded by {@link #get(Object, Function)} is reloaded in the background by the same function
+ * after the refresh delay, while the previous value is still served.
+ * An entry stored by {@link #put(Object, Object)} has no function: it is removed after the refresh delay.
+ */
+public class CacheLibrary extends AbstractLibrary implements Closeable {
+
+    @JsonProperty("initial_capacity")
+    protected Integer initialCapacity;
+
+    @JsonProperty("maximum_size")
+    protected Long maximumSize;
+
+    @JsonProperty("maximum_weight")
+    protected Long maximumWeight;
+
+    @JsonProperty("expire_after_write_ms")
+    protected Long expireAfterWriteMs;
+
+    @JsonProperty("expire_after_access_ms")
+    protected Long expireAfterAccessMs;
+
+    @JsonProperty("refresh_after_write_ms")
+    protected Long refreshAfterWriteMs;
+
+    private volatile LoadingCache<Object, Holder> cache;
+
+    /**
+     * @throws IllegalArgumentException if both maximum_size and maximum_weight are set
+     */
+    @Override
+    public void load() {
+        if (maximumSize != null && maximumWeight != null)
+            throw new IllegalArgumentException(
+                    "The cache can be bounded by maximum_size or by maximum_weight, but not by both");
+        Caffeine<Object, Object> builder = Caffeine.newBuilder().recordStats();
+        if (initialCapacity != null)
+            builder.initialCapacity(initialCapacity);
+        if (maximumSize != null)
+            builder.maximumSize(maximumSize);
+        if (maximumWeight != null)
+            builder = builder.maximumWeight(maximumWeight).weigher((key, holder) -> weigh(((Holder) holder).value));
+        if (expireAfterWriteMs != null)
+            builder.expireAfterWrite(expireAfterWriteMs, TimeUnit.MILLISECONDS);
+        if (expireAfterAccessMs != null)
+            builder.expireAfterAccess(expireAfterAccessMs, TimeUnit.MILLISECONDS);
+        if (refreshAfterWriteMs != null)
+            builder.refreshAfterWrite(refreshAfterWriteMs, TimeUnit.MILLISECONDS);
+        if (libraryManager != null)
+            builder.executor(libraryManager.getExecutor(CacheLibrary.class.getName()));
+        cache = builder.build(new CacheLoader<Object, Holder>() {
+
+            @Override
+            public Holder load(final Object key) {
+                return null;
+            }
+
+            /**
+             * Returning the same holder would reset the write time, and the entry would never expire.
+             * Without loader, null removes the entry.
+             */
+            @Override
+            public Holder reload(final Object key, final Holder holder) {
+                return holder.loader == null ? null : Holder.of(key, holder.loader);
+            }
+        });
+    }
+
+    private LoadingCache<Object, Holder> getCache() {
+        final LoadingCache<Object, Holder> current = cache;
+        if (current == null)
+            throw new IllegalStateException("The cache is not loaded");
+        return current;
+    }
+
+    private static int weigh(final Object value) {
+        if (value instanceof byte[])
+            return ((byte[]) value).length;
+        if (value instanceof ByteBuffer)
+            return ((ByteBuffer) value).remaining();
+        if (value instanceof CharSequence)
+            return ((CharSequence) value).length();
+        if (value instanceof Collection)
+            return ((Collection<?>) value).size();
+        if (value instanceof Map)
+            return ((Map<?, ?>) value).size();
+        if (value instanceof Weighted)
+            return ((Weighted) value).getWeight();
+        return 1;
+    }
+
+    /**
+     * Return the cached value, or compute it once even with concurrent callers.
+     *
+     * @param key    the key
+     * @param loader computes the value, which is not cached if null. Also used to refresh the value.
+     * @param <K>    the type of the key
+     * @param <V>    the type of the value
+     * @return the cached or the loaded value
+     */
+    @SuppressWarnings("unchecked")
+    public <K, V> V get(final K key, final Function<? super K, ? extends V> loader) {
+        final Holder holder = getCache().get(key, k -> Holder.of(k, (Function<Object, Object>) loader));
+        return holder == null ? null : (V) holder.value;
+    }
+
+    /**
+     * @param key the key
+     * @param <V> the type of the value
+     * @return the cached value, or null
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V getIfPresent(final Object key) {
+        final Holder holder = getCache().getIfPresent(key);
+        return holder == null ? null : (V) holder.value;
+    }
+
+    /**
+     * @param key   the key
+     * @param value the value, which is not refreshed: with "refresh_after_write_ms", it is removed after this delay
+     */
+    public void put(final Object key, final Object value) {
+        getCache().put(key, new Holder(value, null));
+    }
+
+    public void invalidate(final Object key) {
+        getCache().invalidate(key);
+    }
+
+    public void invalidateAll() {
+        getCache().invalidateAll();
+    }
+
+    @JsonIgnore
+    public long getEstimatedSize() {
+        return getCache().estimatedSize();
+    }
+
+    @JsonIgnore
+    public Stats getStats() {
+        final LoadingCache<Object, Holder> current = getCache();
+        return new Stats(current.estimatedSize(), current.stats());
+    }
+
+    /**
+     * Perform the pending maintenance, such as the evictions
+     */
+    public void cleanUp() {
+        getCache().cleanUp();
+    }
+
+    @Override
+    public void close() {
+        final LoadingCache<Object, Holder> current = cache;
+        if (current == null)
+            return;
+        current.invalidateAll();
+        current.cleanUp();
+    }
+
+    /**
+     * A value which gives its weight, when the cache is bounded by "maximum_weight"
+     */
+    public interface Weighted {
+
+        int getWeight();
+    }
+
+    private static final class Holder {
+
+        private final Object value;
+        private final Function<Object, Object> loader;
+
+        private Holder(final Object value, final Function<Object, Object> loader) {
+            this.value = value;
+            this.loader = loader;
+        }
+
+        private static Holder of(final Object key, final Function<Object, Object> loader) {
+            final Object value = loader.apply(key);
+            return value == null ? null : new Holder(value, loader);
+        }
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.PUBLIC_ONLY,
+            getterVisibility = JsonAutoDetect.Visibility.NONE,
+            isGetterVisibility = JsonAutoDetect.Visibility.NONE)
+    public static class Stats {
+
+        @JsonProperty("size")
+        final public long size;
+
+        @JsonProperty("hits")
+        final public long hits;
+
+        @JsonProperty("misses")
+        final public long misses;
+
+        @JsonProperty("hit_rate")
+        final public double hitRate;
+
+        @JsonProperty("evictions")
+        final public long evictions;
+
+        @JsonProperty("eviction_weight")
+        final public long evictionWeight;
+
+        @JsonProperty("load_failures")
+        final public long loadFailures;
+
+        @JsonProperty("load_time_mean_ms")
+        final public double loadTimeMean;
+
+        @JsonCreator
+        Stats(@JsonProperty("size") final long size,
+              @JsonProperty("hits") final long hits,
+              @JsonProperty("misses") final long misses,
+              @JsonProperty("hit_rate") final double hitRate,
+              @JsonProperty("evictions") final long evictions,
+              @JsonProperty("eviction_weight") final long evictionWeight,
+              @JsonProperty("load_failures") final long loadFailures,
+              @JsonProperty("load_time_mean_ms") final double loadTimeMean) {
+            this.size = size;
+            this.hits = hits;
+            this.misses = misses;
+            this.hitRate = hitRate;
+            this.evictions = evictions;
+            this.evictionWeight = evictionWeight;
+            this.loadFailures = loadFailures;
+            this.loadTimeMean = loadTimeMean;
+        }
+
+        private Stats(final long size, final CacheStats stats) {
+            this(size, stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount(),
+                    stats.evictionWeight(), stats.loadFailureCount(), stats.averageLoadPenalty() / 1_000_000d);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.undertow.security.idm.Account;
+import io.undertow.security.idm.Credential;
+import io.undertow.security.idm.IdentityManager;
+import io.undertow.security.idm.PasswordCredential;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Remembers the accounts verified with a password, during a limited time.
+ * The cache is keyed by a salted SHA-256 hash of the identifier and the password: the password itself is not kept.
+ * The failed verifications and the other kinds of credentials are always passed to the realm.
+ */
+final class CachedIdentityManager implements IdentityManager {
+
+    private final IdentityManager identityManager;
+    private final Cache<ByteBuffer, Account> accounts;
+    private final byte[] salt;
+
+    CachedIdentityManager(final IdentityManager identityManager, final Duration ttl, final long maximumSize) {
+        this.identityManager = identityManager;
+        this.accounts = Caffeine.newBuilder().expireAfterWrite(ttl).maximumSize(maximumSize).build();
+        this.salt = new byte[16];
+        new SecureRandom().nextBytes(salt);
+    }
+
+    @Override
+    public Account verify(final Account account) {
+        return identityManager.verify(account);
+    }
+
+    @Override
+    public Account verify(final String id, final Credential credential) {
+        if (id == null || !(credential instanceof PasswordCredential))
+            return identityManager.verify(id, credential);
+        final ByteBuffer key = hash(id, ((PasswordCredential) credential).getPassword());
+        final Account cached = accounts.getIfPresent(key);
+        if (cached != null)
+            return cached;
+        final Account account = identityManager.verify(id, credential);
+        if (account != null)
+            accounts.put(key, account);
+        return account;
+    }
+
+    @Override
+    public Account verify(final Credential credential) {
+        return identityManager.verify(credential);
+    }
+
+    long getEstimatedSize() {
+        return accounts.estimatedSize();
+    }
+
+    private ByteBuffer hash(final String id, final char[] password) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(salt);
+        digest.update(id.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        if (password != null) {
+            final ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+            digest.update(bytes.duplicate());
+            if (bytes.hasArray())
+                Arrays.fill(bytes.array(), (byte) 0);
+        }
+        return ByteBuffer.wrap(digest.digest());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A log-linear histogram of durations in nanoseconds, in the spirit of HdrHistogram:
+ * each power of two is split in 8 sub-buckets, which gives a relative precision of 12.5%.
+ * Recording is lock-free and does not allocate.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    private static final double NANOS_PER_MS = 1_000_000d;
+
+    private final AtomicLongArray buckets;
+    private final LongAdder count;
+    private final LongAdder total;
+    private final LongAccumulator max;
+
+    LatencyHistogram() {
+        buckets = new AtomicLongArray(BUCKETS);
+        count = new LongAdder();
+        total = new LongAdder();
+        max = new LongAccumulator(Long::max, 0);
+    }
+
+    static int bucketIndex(final long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + ((int) (value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long bucketUpperBound(final int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        final int shift = index / SUB_BUCKETS - 1;
+        final long subBucket = SUB_BUCKETS + index % SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        buckets.incrementAndGet(bucketIndex(value));
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @param nanos a duration in nanoseconds
+     * @return the duration in milliseconds
+     */
+    static double toMillis(final double nanos) {
+        return nanos / NANOS_PER_MS;
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    double getMean() {
+        final long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the upper bound of the bucket containing the percentile
+     */
+    long getPercentile(final double percentile) {
+        final long n = count.sum();
+        if (n == 0)
+            return 0;
+        final long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long cumulated = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulated += buckets.get(i);
+            if (cumulated >= rank)
+                return Math.min(bucketUpperBound(i), getMax());
+        }
+        return getMax();
+    }
+}
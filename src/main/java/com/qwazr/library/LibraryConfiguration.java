@@ -15,13 +15,147 @@
  */
 package com.qwazr.library;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.qwazr.utils.ObjectMappers;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
 
+/**
+ * The content of a configuration file.
+ * The "variables" and "templates" objects are resolved by {@link LibraryConfigurationResolver}.
+ */
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class LibraryConfiguration {
 
+	/**
+	 * The property giving the number of instances of a library: a number, or "cores" for one per processor
+	 */
+	static final String REPLICAS = "replicas";
+
 	public LinkedHashMap<String, LibraryInterface> library;
 
+	/**
+	 * The additional instances of the replicated libraries
+	 */
+	@JsonIgnore
+	private Map<String, LibraryInterface[]> replicas = Collections.emptyMap();
+
+	/**
+	 * @param name the name of the library
+	 * @return every instance of the library, the first one is the instance of the library map
+	 */
+	LibraryInterface[] getInstances(final String name) {
+		final LibraryInterface[] instances = replicas.get(name);
+		return instances != null ? instances : new LibraryInterface[] { library.get(name) };
+	}
+
+	/**
+	 * Read a configuration file, and resolve its templates and its variables
+	 *
+	 * @param parser the JSON or Smile parser
+	 * @return the configuration, or null if the file is empty
+	 * @throws IOException if the file cannot be parsed, or if a template or a variable cannot be resolved
+	 */
+	static LibraryConfiguration read(final JsonParser parser) throws IOException {
+		final JsonNode root = ObjectMappers.JSON.readTree(parser);
+		if (root == null || root.isMissingNode())
+			return null;
+		return of(resolve(root, LibraryConfigurationResolver::getExternalVariable));
+	}
+
+	/**
+	 * @param root              the tree of a configuration file
+	 * @param externalVariables the lookup of the system properties and of the environment variables
+	 * @return the tree whose templates and variables are resolved
+	 * @throws IOException if a template or a variable cannot be resolved
+	 */
+	static JsonNode resolve(final JsonNode root, final Function<String, String> externalVariables)
+			throws IOException {
+		try {
+			return LibraryConfigurationResolver.resolve(root, externalVariables);
+		}
+		catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Build the configuration from a resolved tree. The "replicas" properties are removed from the tree.
+	 *
+	 * @param resolved the tree returned by {@link #resolve(JsonNode, Function)}
+	 * @return the configuration
+	 * @throws IOException if the libraries cannot be deserialized
+	 */
+	static LibraryConfiguration of(final JsonNode resolved) throws IOException {
+		final Map<String, Integer> replicaCounts = extractReplicas(resolved);
+		final LibraryConfiguration configuration =
+				ObjectMappers.JSON.treeToValue(resolved, LibraryConfiguration.class);
+		if (configuration.library != null && !replicaCounts.isEmpty())
+			configuration.createReplicas(resolved.path(LibraryConfigurationResolver.LIBRARY), replicaCounts);
+		return configuration;
+	}
+
+	/**
+	 * Remove the "replicas" property from the libraries
+	 *
+	 * @return the number of instances of each replicated library
+	 */
+	private static Map<String, Integer> extractReplicas(final JsonNode root) throws IOException {
+		final JsonNode libraries = root.path(LibraryConfigurationResolver.LIBRARY);
+		if (!libraries.isObject())
+			return Collections.emptyMap();
+		final Map<String, Integer> replicaCounts = new HashMap<>();
+		final Iterator<Map.Entry<String, JsonNode>> fields = libraries.fields();
+		while (fields.hasNext()) {
+			final Map.Entry<String, JsonNode> field = fields.next();
+			final JsonNode replicas = field.getValue().get(REPLICAS);
+			if (replicas == null)
+				continue;
+			// The node may be shared with another library: it is copied
+			final ObjectNode node = ((ObjectNode) field.getValue()).deepCopy();
+			node.remove(REPLICAS);
+			field.setValue(node);
+			replicaCounts.put(field.getKey(), getReplicaCount(field.getKey(), replicas));
+		}
+		return replicaCounts;
+	}
+
+	/**
+	 * Each replica is deserialized from the same node: the replicas don't share any mutable state.
+	 */
+	private void createReplicas(final JsonNode libraries, final Map<String, Integer> replicaCounts)
+			throws IOException {
+		replicas = new HashMap<>();
+		for (final Map.Entry<String, Integer> entry : replicaCounts.entrySet()) {
+			final String name = entry.getKey();
+			final LibraryInterface primary = library.get(name);
+			final int count = entry.getValue();
+			if (primary == null || count <= 1)
+				continue;
+			final LibraryInterface[] instances = new LibraryInterface[count];
+			instances[0] = primary;
+			for (int i = 1; i < count; i++)
+				instances[i] = ObjectMappers.JSON.treeToValue(libraries.get(name), LibraryInterface.class);
+			replicas.put(name, instances);
+		}
+	}
+
+	private static int getReplicaCount(final String name, final JsonNode replicas) throws IOException {
+		if (replicas.isIntegralNumber() && replicas.intValue() > 0)
+			return replicas.intValue();
+		if ("cores".equals(replicas.asText()))
+			return Runtime.getRuntime().availableProcessors();
+		throw new IOException("Invalid replicas property for the library " + name + ": " + replicas);
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.qwazr.utils.LoggerUtils;
+import com.qwazr.utils.ObjectMappers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keep a Smile encoded copy of each etc file in the data directory, with its templates and variables resolved.
+ * The copy is used while the size and the modification time of the etc file are unchanged,
+ * or when its content has the same SHA-256 hash (a deployment may touch files without changing them),
+ * and while the system properties and the environment variables it used have the same values.
+ * The copy is read through a memory-mapped buffer, and any invalid copy is replaced.
+ * The configuration errors are not cached: they are thrown as they would be without the cache.
+ */
+final class LibraryConfigurationCache {
+
+    private static final Logger LOGGER = LoggerUtils.getLogger(LibraryConfigurationCache.class);
+
+    private static final int MAGIC = 0x514C4332; // QLC2
+    private static final int HASH_LENGTH = 32;
+    private static final int HEADER_LENGTH = Integer.BYTES + Long.BYTES * 2 + HASH_LENGTH;
+
+    private static final String EXTERNAL = "external";
+    private static final String RESOLVED = "resolved";
+
+    private static final SmileFactory SMILE = new SmileFactory();
+
+    private final Path directory;
+
+    LibraryConfigurationCache(final Path directory) {
+        this.directory = directory;
+    }
+
+    LibraryConfiguration read(final Path jsonFile) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(jsonFile, BasicFileAttributes.class);
+        final long size = attributes.size();
+        final long lastModified = attributes.lastModifiedTime().toMillis();
+        final Path cacheFile = getCacheFile(jsonFile);
+        byte[] json = null;
+        final Copy copy = readCopy(jsonFile, cacheFile, size);
+        if (copy != null && copy.hasCurrentVariables()) {
+            if (copy.lastModified == lastModified)
+                return LibraryConfiguration.of(copy.resolved);
+            json = Files.readAllBytes(jsonFile);
+            if (Arrays.equals(copy.hash, sha256(json))) {
+                write(cacheFile, size, lastModified, copy.hash, copy.smile);
+                return LibraryConfiguration.of(copy.resolved);
+            }
+        }
+        if (json == null)
+            json = Files.readAllBytes(jsonFile);
+        final JsonNode root = ObjectMappers.JSON.readTree(json);
+        if (root == null || root.isMissingNode())
+            return null;
+        final Map<String, String> external = new TreeMap<>();
+        final JsonNode resolved = LibraryConfiguration.resolve(root, name -> {
+            final String value = LibraryConfigurationResolver.getExternalVariable(name);
+            external.put(name, value);
+            return value;
+        });
+        // Encoded before the configuration is built, which removes the "replicas" properties from the tree
+        final byte[] smile = encode(external, resolved);
+        final LibraryConfiguration configuration = LibraryConfiguration.of(resolved);
+        write(cacheFile, size, lastModified, sha256(json), ByteBuffer.wrap(smile));
+        return configuration;
+    }
+
+    /**
+     * Only the errors reading the copy itself mean that the copy is invalid
+     *
+     * @return the copy, or null if there is no valid copy for a file of this size
+     */
+    private Copy readCopy(final Path jsonFile, final Path cacheFile, final long size) {
+        try (final FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            if (channel.size() <= HEADER_LENGTH)
+                return null;
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getLong() != size)
+                return null;
+            final long lastModified = buffer.getLong();
+            final byte[] hash = new byte[HASH_LENGTH];
+            buffer.get(hash);
+            final ByteBuffer smile = buffer.slice();
+            final JsonNode content;
+            try (final JsonParser parser = SMILE.createParser(new ByteBufferBackedInputStream(smile.duplicate()))) {
+                content = ObjectMappers.JSON.readTree(parser);
+            }
+            if (content == null || !content.path(EXTERNAL).isObject() || !content.has(RESOLVED))
+                throw new IOException("Incomplete copy");
+            return new Copy(lastModified, hash, smile, content.get(EXTERNAL), content.get(RESOLVED));
+        }
+        catch (NoSuchFileException e) {
+            // No copy yet
+            return null;
+        }
+        catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, e, () -> "Invalid configuration cache for the file: " + jsonFile);
+            return null;
+        }
+    }
+
+    private static byte[] encode(final Map<String, String> external, final JsonNode resolved) throws IOException {
+        final ObjectNode content = JsonNodeFactory.instance.objectNode();
+        final ObjectNode externalNode = content.putObject(EXTERNAL);
+        external.forEach(externalNode::put);
+        content.set(RESOLVED, resolved);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (final JsonGenerator generator = SMILE.createGenerator(output)) {
+            ObjectMappers.JSON.writeTree(generator, content);
+        }
+        return output.toByteArray();
+    }
+
+    private Path getCacheFile(final Path jsonFile) {
+        final byte[] pathHash =
+                sha256(jsonFile.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+        final StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 16; i++)
+            name.append(String.format("%02x", pathHash[i]));
+        return directory.resolve(name.append(".smile").toString());
+    }
+
+    /**
+     * Replace the copy atomically, a failure is only logged: the etc file remains the source of truth.
+     */
+    private void write(final Path cacheFile, final long size, final long lastModified, final byte[] hash,
+                       final ByteBuffer smile) {
+        Path tempFile = null;
+        try {
+            Files.createDirectories(directory);
+            tempFile = Files.createTempFile(directory, "library", ".tmp");
+            try (final FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.putInt(MAGIC).putLong(size).putLong(lastModified).put(hash).flip();
+                while (header.hasRemaining())
+                    channel.write(header);
+                final ByteBuffer payload = smile.duplicate();
+                while (payload.hasRemaining())
+                    channel.write(payload);
+            }
+            Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.WARNING, e, () -> "Cannot write the configuration cache: " + cacheFile);
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                }
+                catch (IOException ignored) {
+                    // Nothing more to do
+                }
+            }
+        }
+    }
+
+    private static byte[] sha256(final byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Copy {
+
+        private final long lastModified;
+        private final byte[] hash;
+        private final ByteBuffer smile;
+        private final JsonNode external;
+        private final JsonNode resolved;
+
+        private Copy(final long lastModified, final byte[] hash, final ByteBuffer smile, final JsonNode external,
+                     final JsonNode resolved) {
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.smile = smile;
+            this.external = external;
+            this.resolved = resolved;
+        }
+
+        /**
+         * @return true if the system properties and the environment variables used by the file are unchanged
+         */
+        private boolean hasCurrentVariables() {
+            final Iterator<Map.Entry<String, JsonNode>> fields = external.fields();
+            while (fields.hasNext()) {
+                final Map.Entry<String, JsonNode> field = fields.next();
+                final JsonNode value = field.getValue();
+                if (!Objects.equals(value.isNull() ? null : value.asText(),
+                        LibraryConfigurationResolver.getExternalVariable(field.getKey())))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
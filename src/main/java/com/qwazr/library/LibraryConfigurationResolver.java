@@ -0,0 +1,263 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Expand the templates and the variables of a configuration file, before the libraries are deserialized.
+ * A file without "variables" and "templates" objects is not changed.
+ * <pre>
+ * {
+ *   "variables": { "host": "localhost", "pool_max": 16 },
+ *   "templates": { "pool": { "pool_min": 1, "pool_max": "${pool_max}" } },
+ *   "library": { "my_library": { "template": "pool", "class": "...", "url": "http://${host}:${port:8080}" } }
+ * }
+ * </pre>
+ * A template may itself use a template. A library or a template may use several templates ("template": ["a", "b"]),
+ * the later ones and then its own properties override the earlier ones.
+ * A variable is looked up in the "variables" object, then in the system properties, then in the environment.
+ * A default value may itself use variables: "${port:${default_port}}". "$${" is kept as a literal "${".
+ * A string which is only a variable takes the type of the variable (a number stays a number).
+ * <p>
+ * Identical sub-trees of the resolved tree are shared, so that the libraries built from the same template
+ * share the same strings.
+ */
+final class LibraryConfigurationResolver {
+
+    static final String VARIABLES = "variables";
+    static final String TEMPLATES = "templates";
+    static final String LIBRARY = "library";
+    static final String TEMPLATE = "template";
+
+    private static final int MAX_VARIABLE_DEPTH = 16;
+
+    private final JsonNode variables;
+    private final JsonNode templates;
+    private final Function<String, String> externalVariables;
+    private final Map<String, ObjectNode> resolvedTemplates;
+    private final Set<String> resolvingTemplates;
+    private final Map<JsonNode, JsonNode> sharedNodes;
+
+    private LibraryConfigurationResolver(final JsonNode root, final Function<String, String> externalVariables) {
+        this.variables = root.path(VARIABLES);
+        this.templates = root.path(TEMPLATES);
+        this.externalVariables = externalVariables;
+        this.resolvedTemplates = new HashMap<>();
+        this.resolvingTemplates = new LinkedHashSet<>();
+        this.sharedNodes = new HashMap<>();
+    }
+
+    /**
+     * @param root the tree of a configuration file
+     * @return the tree whose libraries have their templates and variables resolved
+     * @throws IllegalArgumentException if a template or a variable is unknown, or if templates are circular
+     */
+    static JsonNode resolve(final JsonNode root) {
+        return resolve(root, LibraryConfigurationResolver::getExternalVariable);
+    }
+
+    static JsonNode resolve(final JsonNode root, final Function<String, String> externalVariables) {
+        final JsonNode libraries = root.path(LIBRARY);
+        if (!libraries.isObject() || (!root.has(VARIABLES) && !root.has(TEMPLATES)))
+            return root;
+        final LibraryConfigurationResolver resolver = new LibraryConfigurationResolver(root, externalVariables);
+        final ObjectNode resolvedLibraries = JsonNodeFactory.instance.objectNode();
+        final Iterator<Map.Entry<String, JsonNode>> fields = libraries.fields();
+        while (fields.hasNext()) {
+            final Map.Entry<String, JsonNode> field = fields.next();
+            final JsonNode library = field.getValue();
+            resolvedLibraries.set(field.getKey(), library.isObject() ?
+                    resolver.share(resolver.interpolate(resolver.expand((ObjectNode) library), 0)) :
+                    library);
+        }
+        final ObjectNode resolvedRoot = JsonNodeFactory.instance.objectNode();
+        resolvedRoot.set(LIBRARY, resolvedLibraries);
+        return resolvedRoot;
+    }
+
+    static String getExternalVariable(final String name) {
+        final String property = System.getProperty(name);
+        return property != null ? property : System.getenv(name);
+    }
+
+    /**
+     * The "template" property is a reference to the templates only if the file has a "templates" object,
+     * otherwise it is a property of the library.
+     *
+     * @return a new object with the properties of its templates, overridden by its own properties
+     */
+    private ObjectNode expand(final ObjectNode node) {
+        final JsonNode template = templates.isObject() ? node.get(TEMPLATE) : null;
+        final ObjectNode result = JsonNodeFactory.instance.objectNode();
+        if (template != null) {
+            if (template.isArray())
+                template.forEach(name -> merge(result, getTemplate(name.asText())));
+            else
+                merge(result, getTemplate(template.asText()));
+        }
+        node.fields().forEachRemaining(field -> {
+            if (template == null || !TEMPLATE.equals(field.getKey()))
+                merge(result, field.getKey(), field.getValue());
+        });
+        return result;
+    }
+
+    private ObjectNode getTemplate(final String name) {
+        final ObjectNode resolved = resolvedTemplates.get(name);
+        if (resolved != null)
+            return resolved;
+        final JsonNode template = templates.get(name);
+        if (template == null || !template.isObject())
+            throw new IllegalArgumentException("Unknown template: " + name);
+        if (!resolvingTemplates.add(name))
+            throw new IllegalArgumentException("Circular templates: " + String.join(" -> ", resolvingTemplates) + " -> " + name);
+        final ObjectNode expanded = expand((ObjectNode) template);
+        resolvingTemplates.remove(name);
+        resolvedTemplates.put(name, expanded);
+        return expanded;
+    }
+
+    private static void merge(final ObjectNode target, final ObjectNode source) {
+        source.fields().forEachRemaining(field -> merge(target, field.getKey(), field.getValue()));
+    }
+
+    /**
+     * The nested objects are merged, any other value is replaced
+     */
+    private static void merge(final ObjectNode target, final String name, final JsonNode value) {
+        final JsonNode current = target.get(name);
+        if (current != null && current.isObject() && value.isObject()) {
+            final ObjectNode merged = ((ObjectNode) current).deepCopy();
+            merge(merged, (ObjectNode) value);
+            target.set(name, merged);
+        }
+        else
+            target.set(name, value);
+    }
+
+    private JsonNode interpolate(final JsonNode node, final int depth) {
+        if (node.isTextual())
+            return interpolate(node.textValue(), depth);
+        if (node.isObject()) {
+            final ObjectNode result = JsonNodeFactory.instance.objectNode();
+            node.fields().forEachRemaining(field -> result.set(field.getKey(), interpolate(field.getValue(), depth)));
+            return result;
+        }
+        if (node.isArray()) {
+            final ArrayNode result = JsonNodeFactory.instance.arrayNode(node.size());
+            node.forEach(item -> result.add(interpolate(item, depth)));
+            return result;
+        }
+        return node;
+    }
+
+    private JsonNode interpolate(final String text, final int depth) {
+        int start = text.indexOf("${");
+        if (start == -1)
+            return TextNode.valueOf(text);
+        if (depth > MAX_VARIABLE_DEPTH)
+            throw new IllegalArgumentException("Too many nested variables in: " + text);
+        // A string which is only a variable keeps the type of the variable
+        if (start == 0 && findClose(text, start) == text.length() - 1)
+            return getVariable(text.substring(2, text.length() - 1), depth);
+        final StringBuilder result = new StringBuilder();
+        int end = 0;
+        while (start != -1) {
+            // "$${" is an escaped "${"
+            if (start > 0 && text.charAt(start - 1) == '$') {
+                result.append(text, end, start - 1).append("${");
+                end = start + 2;
+                start = text.indexOf("${", end);
+                continue;
+            }
+            final int close = findClose(text, start);
+            if (close == -1)
+                break;
+            result.append(text, end, start);
+            result.append(getVariable(text.substring(start + 2, close), depth).asText());
+            end = close + 1;
+            start = text.indexOf("${", end);
+        }
+        result.append(text, end, text.length());
+        return TextNode.valueOf(result.toString());
+    }
+
+    /**
+     * @param start the position of the "${" of a variable
+     * @return the position of the "}" which closes the variable, skipping the nested variables, or -1
+     */
+    private static int findClose(final String text, final int start) {
+        int nested = 0;
+        int i = start + 2;
+        while (i < text.length()) {
+            if (text.startsWith("${", i)) {
+                nested++;
+                i += 2;
+                continue;
+            }
+            if (text.charAt(i) == '}') {
+                if (nested == 0)
+                    return i;
+                nested--;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    private JsonNode getVariable(final String expression, final int depth) {
+        final int colon = expression.indexOf(':');
+        final String name = colon == -1 ? expression : expression.substring(0, colon);
+        final JsonNode value = variables.get(name);
+        if (value != null)
+            return interpolate(value, depth + 1);
+        final String external = externalVariables.apply(name);
+        if (external != null)
+            return TextNode.valueOf(external);
+        if (colon != -1)
+            return interpolate(expression.substring(colon + 1), depth + 1);
+        throw new IllegalArgumentException("Unknown variable: " + name);
+    }
+
+    /**
+     * Replace the identical sub-trees by the same instance, from the leaves up
+     */
+    private JsonNode share(final JsonNode node) {
+        if (node.isObject()) {
+            final ObjectNode object = (ObjectNode) node;
+            object.fields().forEachRemaining(field -> field.setValue(share(field.getValue())));
+        }
+        else if (node.isArray()) {
+            final ArrayNode array = (ArrayNode) node;
+            for (int i = 0; i < array.size(); i++)
+                array.set(i, share(array.get(i)));
+        }
+        final JsonNode shared = sharedNodes.putIfAbsent(node, node);
+        return shared == null ? node : shared;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A library instance registered in the manager, with its loading state.
+ * A lazy library is loaded by the first call to {@link #get()}, exactly once even with concurrent callers.
+ * <p>
+ * The leases are counted with two striped counters. Once the entry is retired, no lease can be acquired,
+ * and the entry is drained when every lease acquired before the retirement has been released.
+ * <p>
+ * A replicated library has several instances, each one loaded and closed independently.
+ * {@link #get()} returns the instance of the stripe of the current thread.
+ */
+final class LibraryEntry implements Closeable {
+
+    final String name;
+    final LibraryInterface library;
+    final LibraryInterface[] instances;
+    final LibraryStats stats;
+    private volatile boolean loaded;
+    private boolean loading;
+    private volatile boolean retired;
+    private final LibraryLifecycle lifecycle;
+    private CompletableFuture<?>[] closing;
+    private CompletableFuture<Void> closed;
+    private final LongAdder acquiredLeases;
+    private final LongAdder releasedLeases;
+
+    /**
+     * @param name      the name of the library
+     * @param instances the instances of the library, the first one is the main instance
+     * @param stats     the statistics of the library
+     * @param lifecycle runs the loads and the closes with their timeouts
+     */
+    LibraryEntry(final String name, final LibraryInterface[] instances, final LibraryStats stats,
+                 final LibraryLifecycle lifecycle) {
+        this.name = name;
+        this.library = instances[0];
+        this.instances = instances;
+        this.stats = stats;
+        this.lifecycle = lifecycle;
+        this.acquiredLeases = new LongAdder();
+        this.releasedLeases = new LongAdder();
+    }
+
+    /**
+     * Call {@link LibraryInterface#load(LibraryManager)}, and {@link LibraryInterface#load()} unless the library is lazy
+     *
+     * @param libraryManager the owning manager
+     */
+    void load(final LibraryManager libraryManager) {
+        try {
+            for (final LibraryInterface instance : instances)
+                instance.load(libraryManager);
+        }
+        catch (RuntimeException | Error e) {
+            stats.loadFailures.increment();
+            throw e;
+        }
+        if (!library.isLazy())
+            ensureLoaded();
+    }
+
+    /**
+     * @return the library instance, loaded if the library is lazy
+     */
+    LibraryInterface get() {
+        if (!loaded)
+            ensureLoaded();
+        return instances.length == 1 ? library : instances[stripe(instances.length)];
+    }
+
+    /**
+     * The same thread always uses the same replica. No allocation, no shared write.
+     */
+    private static int stripe(final int count) {
+        final long hash = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) ((hash >>> 33) % count);
+    }
+
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @return true if the lease is acquired, false if the entry has been retired
+     */
+    boolean tryAcquire() {
+        acquiredLeases.increment();
+        if (!retired)
+            return true;
+        releasedLeases.increment();
+        return false;
+    }
+
+    void release() {
+        releasedLeases.increment();
+    }
+
+    void retire() {
+        retired = true;
+    }
+
+    /**
+     * The released leases are read first: every counted release has its acquisition counted too.
+     *
+     * @return the number of leases which may still be held
+     */
+    long getActiveLeases() {
+        final long released = releasedLeases.sum();
+        return acquiredLeases.sum() - released;
+    }
+
+    /**
+     * @throws IllegalStateException if the entry is closed, as nothing would close the instances,
+     *                               or if the library is used by its own load
+     */
+    private synchronized void ensureLoaded() {
+        if (loaded)
+            return;
+        if (closed != null)
+            throw new IllegalStateException("The library " + name + " has been unloaded");
+        if (loading)
+            throw new IllegalStateException("The library " + name + " is used while it is loading");
+        loading = true;
+        final long start = System.nanoTime();
+        int loadedCount = 0;
+        try {
+            for (final LibraryInterface instance : instances) {
+                lifecycle.load(name, instance);
+                loadedCount++;
+            }
+        }
+        catch (RuntimeException | Error e) {
+            stats.loadFailures.increment();
+            // The entry is not loaded, it will never close the replicas which have been loaded
+            for (int i = 0; i < loadedCount; i++)
+                lifecycle.closeQuietly(name, instances[i]);
+            throw e;
+        }
+        finally {
+            loading = false;
+        }
+        stats.loadTime.record(System.nanoTime() - start);
+        loaded = true;
+    }
+
+    /**
+     * Start closing the instances concurrently, once. A lazy library which has never been loaded is not closed.
+     *
+     * @return the future completed when every instance is closed, which never fails
+     */
+    synchronized CompletableFuture<Void> closeAsync() {
+        if (closed != null)
+            return closed;
+        if (!loaded) {
+            closed = CompletableFuture.completedFuture(null);
+            return closed;
+        }
+        final long start = System.nanoTime();
+        closing = new CompletableFuture<?>[instances.length];
+        for (int i = 0; i < instances.length; i++)
+            closing[i] = lifecycle.close(name, instances[i]);
+        closed = CompletableFuture.allOf(closing).handle((result, error) -> {
+            stats.closeTime.record(System.nanoTime() - start);
+            return null;
+        });
+        return closed;
+    }
+
+    /**
+     * Interrupt the closes which are still running
+     */
+    synchronized void cancelClose() {
+        if (closing != null)
+            for (final CompletableFuture<?> future : closing)
+                future.cancel(true);
+    }
+
+    /**
+     * Close the instances, waiting at most the close timeout
+     */
+    @Override
+    public void close() {
+        lifecycle.closeAll(Collections.singletonList(this));
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An executor obtained from {@link LibraryManager#getExecutor(String, int)}.
+ * The tasks run on the threads shared by every library of the manager,
+ * and at most maxConcurrency tasks of the executors with the same name run at the same time.
+ * The other tasks wait in a queue.
+ * <p>
+ * Each call to {@link LibraryManager#getExecutor(String, int)} returns a new handle on the named executor.
+ * Shutting down a handle only rejects its new tasks, and {@link #awaitTermination(long, TimeUnit)} only waits
+ * for the tasks submitted through this handle: a library can shut down its handle when it is closed,
+ * without stopping the other libraries. Every handle is shut down when the manager is closed.
+ */
+public final class LibraryExecutor extends AbstractExecutorService {
+
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+
+    private final LibrarySharedExecutor shared;
+    private final Set<Task> tasks;
+    private final AtomicInteger submitting;
+    private volatile boolean shutdown;
+
+    LibraryExecutor(final LibrarySharedExecutor shared) {
+        this.shared = shared;
+        this.tasks = ConcurrentHashMap.newKeySet();
+        this.submitting = new AtomicInteger();
+    }
+
+    public String getName() {
+        return shared.getName();
+    }
+
+    public int getMaxConcurrency() {
+        return shared.getMaxConcurrency();
+    }
+
+    /**
+     * @return the number of running tasks of the executors with this name
+     */
+    public int getActiveCount() {
+        return shared.getActiveCount();
+    }
+
+    /**
+     * @return the number of tasks of the executors with this name waiting for a free slot
+     */
+    public int getQueueSize() {
+        return shared.getQueueSize();
+    }
+
+    /**
+     * The task is counted as submitting before the shutdown flag is read:
+     * the handle is not terminated until an accepted task is tracked.
+     */
+    @Override
+    public void execute(final Runnable command) {
+        final Task task = new Task(command);
+        submitting.incrementAndGet();
+        try {
+            if (shutdown)
+                throw new RejectedExecutionException("The executor is shut down: " + getName());
+            tasks.add(task);
+        }
+        finally {
+            submitting.decrementAndGet();
+        }
+        try {
+            shared.execute(task, task::reject);
+        }
+        catch (RejectedExecutionException e) {
+            finished(task);
+            throw e;
+        }
+    }
+
+    private void finished(final Task task) {
+        tasks.remove(task);
+        signalTermination();
+    }
+
+    private void signalTermination() {
+        if (isTerminated()) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Reject the new tasks of this handle, its tasks already submitted are still executed
+     */
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        signalTermination();
+    }
+
+    /**
+     * Reject the new tasks of this handle, remove its tasks which are not started yet,
+     * and interrupt its running tasks
+     *
+     * @return the tasks which have never started
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        final List<Runnable> notStarted = new ArrayList<>();
+        // The tasks are removed before any interruption, which would let a queued task start
+        for (final Task task : tasks)
+            if (task.cancel())
+                notStarted.add(task.command);
+        tasks.forEach(Task::interrupt);
+        signalTermination();
+        return notStarted;
+    }
+
+    /**
+     * Shut down this handle, and wait until its tasks are terminated.
+     * Overrides ExecutorService.close() on JDK 19 and later, with the same behavior.
+     */
+    public void close() {
+        shutdown();
+        boolean interrupted = false;
+        while (!isTerminated()) {
+            try {
+                awaitTermination(1, TimeUnit.DAYS);
+            }
+            catch (InterruptedException e) {
+                if (!interrupted) {
+                    shutdownNow();
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * @return true if this handle, or the manager, has been shut down
+     */
+    @Override
+    public boolean isShutdown() {
+        return shutdown || shared.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return isShutdown() && submitting.get() == 0 && tasks.isEmpty();
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            for (; ; ) {
+                if (isTerminated())
+                    return true;
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    return false;
+                // The shutdown of the manager is not signaled to the handles: it is checked periodically
+                TimeUnit.NANOSECONDS.timedWait(this, Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(100)));
+            }
+        }
+    }
+
+    private final class Task implements Runnable {
+
+        private final Runnable command;
+        private final AtomicInteger state;
+        private Thread runner;
+
+        private Task(final Runnable command) {
+            this.command = command;
+            this.state = new AtomicInteger(QUEUED);
+        }
+
+        @Override
+        public void run() {
+            // A task removed by shutdownNow() is not started
+            if (!state.compareAndSet(QUEUED, RUNNING))
+                return;
+            synchronized (this) {
+                runner = Thread.currentThread();
+            }
+            try {
+                command.run();
+            }
+            finally {
+                synchronized (this) {
+                    runner = null;
+                }
+                state.set(DONE);
+                finished(this);
+            }
+        }
+
+        /**
+         * @return true if the task has not started, and will never start
+         */
+        private boolean cancel() {
+            if (!state.compareAndSet(QUEUED, DONE))
+                return false;
+            finished(this);
+            return true;
+        }
+
+        private synchronized void interrupt() {
+            if (runner != null)
+                runner.interrupt();
+        }
+
+        /**
+         * Called when the shared threads reject the task
+         */
+        private void reject() {
+            if (cancel() && command instanceof Future)
+                ((Future<?>) command).cancel(false);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.qwazr.utils.LoggerUtils;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationTargetException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The threads shared by the libraries, and the named executors built on top of them.
+ * Virtual threads are used when the JVM provides them (JDK 21 and later),
+ * otherwise a bounded pool of platform threads is used.
+ */
+final class LibraryExecutors implements Closeable {
+
+    private static final Logger LOGGER = LoggerUtils.getLogger(LibraryExecutors.class);
+
+    private final ExecutorService threads;
+    private final boolean virtualThreads;
+    private final ConcurrentHashMap<String, LibrarySharedExecutor> executors;
+    private final long shutdownTimeoutNanos;
+
+    LibraryExecutors(final boolean virtualThreads, final int platformThreads, final Duration shutdownTimeout) {
+        final ExecutorService virtualThreadExecutor = virtualThreads ? newVirtualThreadExecutor() : null;
+        this.virtualThreads = virtualThreadExecutor != null;
+        this.threads = virtualThreadExecutor != null ? virtualThreadExecutor : newPlatformThreadExecutor(platformThreads);
+        this.executors = new ConcurrentHashMap<>();
+        this.shutdownTimeoutNanos = shutdownTimeout.toNanos();
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (NoSuchMethodException e) {
+            return null;
+        }
+        catch (IllegalAccessException | InvocationTargetException | RuntimeException e) {
+            // e.g. a JDK where virtual threads are a preview feature which is not enabled
+            LOGGER.log(Level.WARNING, e, () -> "The virtual threads are not available");
+            return null;
+        }
+    }
+
+    private static ExecutorService newPlatformThreadExecutor(final int platformThreads) {
+        final AtomicInteger threadCounter = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(platformThreads, platformThreads, 1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "library-executor-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @return a new handle on the executor with this name,
+     * created with the given maximum concurrency if it does not exist yet
+     */
+    LibraryExecutor get(final String name, final int maxConcurrency) {
+        final LibrarySharedExecutor executor = executors.get(name);
+        if (executor != null)
+            return new LibraryExecutor(executor);
+        return new LibraryExecutor(
+                executors.computeIfAbsent(name, n -> new LibrarySharedExecutor(n, maxConcurrency, threads)));
+    }
+
+    <T> Map<String, T> getReports(final Function<LibrarySharedExecutor, T> reporter) {
+        final Map<String, T> reports = new TreeMap<>();
+        executors.forEach((name, executor) -> reports.put(name, reporter.apply(executor)));
+        return reports;
+    }
+
+    /**
+     * Reject the new tasks. The tasks already submitted are still executed.
+     */
+    void shutdown() {
+        executors.values().forEach(LibrarySharedExecutor::terminate);
+    }
+
+    /**
+     * Wait for the submitted tasks until the shutdown timeout, then interrupt the remaining tasks.
+     */
+    @Override
+    public void close() {
+        shutdown();
+        final long deadline = System.nanoTime() + shutdownTimeoutNanos;
+        try {
+            for (final LibrarySharedExecutor executor : executors.values()) {
+                if (!executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+                    LOGGER.warning(() -> "The tasks of the executor " + executor.getName() + " are interrupted");
+            }
+            threads.shutdown();
+            if (!threads.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS))
+                threads.shutdownNow();
+        }
+        catch (InterruptedException e) {
+            threads.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.qwazr.utils.LoggerUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watch the directories of the etc files and reload the changed files.
+ * A burst of events is collected until no event occurs during the debounce delay,
+ * then only the changed files are loaded again, or unloaded if they have been deleted.
+ */
+final class LibraryFileWatcher implements Closeable {
+
+    private static final Logger LOGGER = LoggerUtils.getLogger(LibraryFileWatcher.class);
+
+    private final LibraryManager libraryManager;
+    private final Map<Path, Path> etcFiles;
+    private final long debounceMs;
+    private final WatchService watchService;
+    private final ScheduledExecutorService scheduler;
+    private final Thread watchThread;
+
+    private final Set<Path> pendingFiles;
+    private ScheduledFuture<?> pendingReload;
+
+    LibraryFileWatcher(final LibraryManager libraryManager,
+                       final Collection<Path> etcFiles,
+                       final Duration debounce) throws IOException {
+        this.libraryManager = libraryManager;
+        this.etcFiles = new HashMap<>();
+        this.debounceMs = debounce.toMillis();
+        this.pendingFiles = new LinkedHashSet<>();
+        this.watchService = FileSystems.getDefault().newWatchService();
+        try {
+            final Set<Path> directories = new LinkedHashSet<>();
+            for (final Path etcFile : etcFiles) {
+                final Path absolutePath = etcFile.toAbsolutePath().normalize();
+                this.etcFiles.put(absolutePath, etcFile);
+                directories.add(absolutePath.getParent());
+            }
+            for (final Path directory : directories)
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        }
+        catch (IOException | RuntimeException e) {
+            watchService.close();
+            throw e;
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "library-reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watchThread = new Thread(this::watch, "library-watcher");
+        this.watchThread.setDaemon(true);
+        this.watchThread.start();
+    }
+
+    private void watch() {
+        try {
+            for (; ; ) {
+                final WatchKey key = watchService.take();
+                final Path directory = (Path) key.watchable();
+                for (final WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        etcFiles.forEach((absolutePath, etcFile) -> {
+                            if (absolutePath.getParent().equals(directory))
+                                schedule(etcFile);
+                        });
+                        continue;
+                    }
+                    final Path etcFile = etcFiles.get(directory.resolve((Path) event.context()).normalize());
+                    if (etcFile != null)
+                        schedule(etcFile);
+                }
+                key.reset();
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e) {
+            LOGGER.fine("The library watcher is stopped");
+        }
+    }
+
+    private synchronized void schedule(final Path etcFile) {
+        pendingFiles.add(etcFile);
+        if (pendingReload != null)
+            pendingReload.cancel(false);
+        pendingReload = scheduler.schedule(this::reload, debounceMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void reload() {
+        final List<Path> files;
+        synchronized (this) {
+            files = new ArrayList<>(pendingFiles);
+            pendingFiles.clear();
+            pendingReload = null;
+        }
+        for (final Path etcFile : files) {
+            try {
+                if (Files.exists(etcFile))
+                    libraryManager.loadLibrarySet(etcFile);
+                else
+                    libraryManager.unloadLibrarySet(etcFile);
+            }
+            catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, e, () -> "Cannot reload the file: " + etcFile);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        watchThread.interrupt();
+        scheduler.shutdownNow();
+        try {
+            if (!scheduler.awaitTermination(1, TimeUnit.MINUTES))
+                LOGGER.warning("The library reloader is still running");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.qwazr.utils.LoggerUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * The libraries of a set of configuration files, ordered by their dependencies.
+ * A library depends on the names returned by {@link LibraryInterface#getDependencies()}
+ * and on the names of its fields annotated with {@link com.qwazr.library.annotations.Library}.
+ * When a name is declared by several files, the dependency is on the file with the greatest path.
+ * A dependency which is not declared by these files must already be published.
+ */
+final class LibraryGraph {
+
+    private static final Logger LOGGER = LoggerUtils.getLogger(LibraryGraph.class);
+
+    private final List<Node> sortedNodes;
+
+    /**
+     * @param files            the libraries declared by each file
+     * @param fieldLibraries   the names of the annotated fields of a library class
+     * @param publishedLibrary tells if a name is already published
+     * @throws IllegalStateException if the dependencies are circular
+     */
+    LibraryGraph(final Map<Path, Map<String, LibraryEntry>> files,
+                 final Function<Class<?>, String[]> fieldLibraries,
+                 final Predicate<String> publishedLibrary) {
+        final List<Node> nodes = new ArrayList<>();
+        final Map<String, Node> winners = new HashMap<>();
+        files.forEach((file, entries) -> entries.values().forEach(entry -> {
+            final Node node = new Node(file, entry);
+            nodes.add(node);
+            winners.merge(entry.name, node, (current, other) -> current.file.compareTo(other.file) >= 0 ? current : other);
+        }));
+        winners.values().forEach(node -> node.winner = true);
+        for (final Node node : nodes) {
+            final Set<String> names = new LinkedHashSet<>();
+            final Collection<String> dependencies = node.entry.library.getDependencies();
+            if (dependencies != null)
+                names.addAll(dependencies);
+            for (final String name : fieldLibraries.apply(node.entry.library.getClass()))
+                names.add(name);
+            for (final String name : names) {
+                final Node dependency = winners.get(name);
+                if (dependency != null)
+                    node.dependencies.add(dependency);
+                else if (!publishedLibrary.test(name))
+                    LOGGER.warning(() -> "The library " + node.entry.name + " depends on an unknown library: " + name);
+            }
+        }
+        this.sortedNodes = sort(nodes);
+    }
+
+    /**
+     * Kahn's algorithm: a node is added once all its dependencies have been added.
+     * The nodes left over are on a cycle, or depend on a cycle.
+     */
+    private static List<Node> sort(final List<Node> nodes) {
+        final Map<Node, List<Node>> dependents = new HashMap<>();
+        final Map<Node, Integer> pendingDependencies = new HashMap<>();
+        final ArrayDeque<Node> ready = new ArrayDeque<>();
+        for (final Node node : nodes) {
+            pendingDependencies.put(node, node.dependencies.size());
+            if (node.dependencies.isEmpty())
+                ready.add(node);
+            for (final Node dependency : node.dependencies)
+                dependents.computeIfAbsent(dependency, d -> new ArrayList<>()).add(node);
+        }
+        final List<Node> sorted = new ArrayList<>(nodes.size());
+        while (!ready.isEmpty()) {
+            final Node node = ready.poll();
+            sorted.add(node);
+            for (final Node dependent : dependents.getOrDefault(node, Collections.emptyList()))
+                if (pendingDependencies.merge(dependent, -1, Integer::sum) == 0)
+                    ready.add(dependent);
+        }
+        if (sorted.size() < nodes.size())
+            throw new IllegalStateException("Circular library dependencies: " + findCycle(nodes, pendingDependencies));
+        return sorted;
+    }
+
+    /**
+     * Every node left over by the sort has a dependency left over: following them always ends on a cycle.
+     */
+    private static String findCycle(final List<Node> nodes, final Map<Node, Integer> pendingDependencies) {
+        Node node = null;
+        for (final Node candidate : nodes) {
+            if (pendingDependencies.get(candidate) > 0) {
+                node = candidate;
+                break;
+            }
+        }
+        final Map<Node, Integer> pathIndexes = new HashMap<>();
+        final List<Node> path = new ArrayList<>();
+        while (!pathIndexes.containsKey(node)) {
+            pathIndexes.put(node, path.size());
+            path.add(node);
+            for (final Node dependency : node.dependencies) {
+                if (pendingDependencies.get(dependency) > 0) {
+                    node = dependency;
+                    break;
+                }
+            }
+        }
+        final Node first = node;
+        return path.subList(pathIndexes.get(first), path.size())
+                .stream()
+                .map(n -> n.entry.name)
+                .collect(Collectors.joining(" -> ", "", " -> " + first.entry.name));
+    }
+
+    /**
+     * Load the libraries, each one once its dependencies are loaded.
+     * The libraries which don't depend on each other are loaded concurrently by the executor.
+     * If a library fails, the remaining libraries are skipped, the libraries already loaded are closed,
+     * and the exception is thrown.
+     *
+     * @param executor the executor running the loads
+     * @param loader   loads one library
+     * @param onLoaded called with each library declared by the file with the greatest path, once loaded
+     * @param closer   closes the libraries already loaded when a library fails
+     */
+    void load(final Executor executor, final Consumer<LibraryEntry> loader, final Consumer<LibraryEntry> onLoaded,
+              final Consumer<Collection<LibraryEntry>> closer) {
+        final Map<Node, CompletableFuture<Void>> futures = new HashMap<>();
+        final AtomicBoolean failed = new AtomicBoolean();
+        for (final Node node : sortedNodes) {
+            final CompletableFuture<?>[] dependencies =
+                    node.dependencies.stream().map(futures::get).toArray(CompletableFuture[]::new);
+            futures.put(node, CompletableFuture.allOf(dependencies).thenRunAsync(() -> {
+                if (failed.get())
+                    throw new CancellationException();
+                try {
+                    loader.accept(node.entry);
+                }
+                catch (RuntimeException | Error e) {
+                    failed.set(true);
+                    throw e;
+                }
+                if (node.winner)
+                    onLoaded.accept(node.entry);
+            }, executor));
+        }
+        try {
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])).join();
+        }
+        catch (CompletionException | CancellationException e) {
+            final List<LibraryEntry> loaded = new ArrayList<>();
+            for (final Node node : sortedNodes)
+                if (!futures.get(node).isCompletedExceptionally())
+                    loaded.add(node.entry);
+            closer.accept(loaded);
+            throw findCause(futures);
+        }
+    }
+
+    /**
+     * The skipped libraries are ignored. The first library which failed in the dependency order is reported,
+     * the failures of the other libraries are added as suppressed exceptions.
+     * The dependents of a failed library complete with the same exception: it is reported only once.
+     *
+     * @return the exception thrown by the first library which failed
+     */
+    private RuntimeException findCause(final Map<Node, CompletableFuture<Void>> futures) {
+        final Set<Throwable> causes = Collections.newSetFromMap(new IdentityHashMap<>());
+        Throwable first = null;
+        for (final Node node : sortedNodes) {
+            final Throwable cause;
+            try {
+                futures.get(node).getNow(null);
+                continue;
+            }
+            catch (CompletionException e) {
+                cause = e.getCause();
+            }
+            catch (CancellationException e) {
+                // Skipped because of another failure
+                continue;
+            }
+            if (cause instanceof CancellationException || !causes.add(cause))
+                continue;
+            if (first == null)
+                first = cause;
+            else
+                first.addSuppressed(cause);
+        }
+        if (first == null)
+            return new CancellationException("The libraries have not been loaded");
+        if (first instanceof Error)
+            throw (Error) first;
+        return first instanceof RuntimeException ? (RuntimeException) first : new RuntimeException(first);
+    }
+
+    private static final class Node {
+
+        private final Path file;
+        private final LibraryEntry entry;
+        private final List<Node> dependencies;
+        private boolean winner;
+
+        private Node(final Path file, final LibraryEntry entry) {
+            this.file = file;
+            this.entry = entry;
+            this.dependencies = new ArrayList<>();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Check the libraries implementing {@link LibraryHealthCheck}. Every replica of a library is checked.
+ * <p>
+ * All the checks run in parallel on a bounded thread pool with a bounded queue, each one within the timeout.
+ * The report is cached during the TTL, and concurrent callers share the same check round.
+ * A check still running from a previous round is not started again, so hung checks never pile up.
+ */
+public final class LibraryHealth implements Closeable {
+
+    private static final int QUEUED_CHECKS_PER_THREAD = 16;
+
+    private final LibraryManager libraryManager;
+    private final long timeoutNanos;
+    private final long ttlNanos;
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentHashMap<LibraryInterface, CompletableFuture<Void>> runningChecks;
+
+    private volatile Report cachedReport;
+    private volatile long cachedReportExpiry;
+    private CompletableFuture<Report> pendingRound;
+
+    LibraryHealth(final LibraryManager libraryManager, final Duration timeout, final Duration ttl,
+                  final int parallelism) {
+        this.libraryManager = libraryManager;
+        this.timeoutNanos = timeout.toNanos();
+        this.ttlNanos = ttl.toNanos();
+        this.runningChecks = new ConcurrentHashMap<>();
+        final AtomicInteger threadCounter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>(parallelism * QUEUED_CHECKS_PER_THREAD), runnable -> {
+            final Thread thread = new Thread(runnable, "library-health-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return the cached report, or a new one if the TTL is expired
+     */
+    Report getReport() {
+        final Report report = cachedReport;
+        if (report != null && System.nanoTime() - cachedReportExpiry < 0)
+            return report;
+        final CompletableFuture<Report> round;
+        boolean owner = false;
+        synchronized (this) {
+            if (pendingRound == null) {
+                pendingRound = new CompletableFuture<>();
+                owner = true;
+            }
+            round = pendingRound;
+        }
+        if (owner) {
+            try {
+                final Report newReport = check();
+                cachedReport = newReport;
+                cachedReportExpiry = System.nanoTime() + ttlNanos;
+                round.complete(newReport);
+            }
+            catch (RuntimeException | Error e) {
+                round.completeExceptionally(e);
+                throw e;
+            }
+            finally {
+                synchronized (this) {
+                    pendingRound = null;
+                }
+            }
+        }
+        return round.join();
+    }
+
+    private CompletableFuture<Void> startCheck(final LibraryInterface instance) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final CompletableFuture<Void> running = runningChecks.putIfAbsent(instance, future);
+        if (running != null)
+            return running;
+        try {
+            executor.execute(() -> {
+                try {
+                    ((LibraryHealthCheck) instance).checkHealth();
+                    future.complete(null);
+                }
+                catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+                finally {
+                    runningChecks.remove(instance, future);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            runningChecks.remove(instance, future);
+            future.completeExceptionally(new RejectedExecutionException("Too many pending health checks", e));
+        }
+        return future;
+    }
+
+    private Report check() {
+        final long start = System.nanoTime();
+        final Map<String, CompletableFuture<?>[]> checks = new LinkedHashMap<>();
+        libraryManager.getSnapshot().entries.forEach((name, entry) -> {
+            if (!(entry.library instanceof LibraryHealthCheck) || !entry.isLoaded())
+                return;
+            final CompletableFuture<?>[] futures = new CompletableFuture<?>[entry.instances.length];
+            for (int i = 0; i < futures.length; i++)
+                futures[i] = startCheck(entry.instances[i]);
+            checks.put(name, futures);
+        });
+        final long deadline = start + timeoutNanos;
+        final Map<String, LibraryStatus> statuses = new TreeMap<>();
+        boolean healthy = true;
+        for (final Map.Entry<String, CompletableFuture<?>[]> check : checks.entrySet()) {
+            final LibraryStatus status = getStatus(check.getValue(), deadline);
+            if (status.status != Status.UP)
+                healthy = false;
+            statuses.put(check.getKey(), status);
+        }
+        return new Report(healthy ? Status.UP : Status.DOWN,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), statuses);
+    }
+
+    /**
+     * @return UP if every replica is up, or the status of the first replica which is down
+     */
+    private static LibraryStatus getStatus(final CompletableFuture<?>[] futures, final long deadline) {
+        for (int i = 0; i < futures.length; i++) {
+            final String message;
+            try {
+                futures[i].get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                continue;
+            }
+            catch (TimeoutException e) {
+                message = "Timeout";
+            }
+            catch (ExecutionException e) {
+                final Throwable cause = e.getCause() == null ? e : e.getCause();
+                message = cause.getMessage() == null ? cause.getClass().getName() : cause.getMessage();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                message = "Interrupted";
+            }
+            return new LibraryStatus(Status.DOWN, futures.length == 1 ? message : "Replica " + i + ": " + message);
+        }
+        return new LibraryStatus(Status.UP, null);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    public enum Status {
+        UP, DOWN
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.PUBLIC_ONLY,
+            getterVisibility = JsonAutoDetect.Visibility.NONE,
+            isGetterVisibility = JsonAutoDetect.Visibility.NONE)
+    public static class Report {
+
+        @JsonProperty("status")
+        final public Status status;
+
+        @JsonProperty("duration_ms")
+        final public long durationMs;
+
+        @JsonProperty("libraries")
+        final public Map<String, LibraryStatus> libraries;
+
+        @JsonCreator
+        Report(@JsonProperty("status") final Status status,
+               @JsonProperty("duration_ms") final long durationMs,
+               @JsonProperty("libraries") final Map<String, LibraryStatus> libraries) {
+            this.status = status;
+            this.durationMs = durationMs;
+            this.libraries = libraries;
+        }
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.PUBLIC_ONLY,
+            getterVisibility = JsonAutoDetect.Visibility.NONE,
+            isGetterVisibility = JsonAutoDetect.Visibility.NONE)
+    public static class LibraryStatus {
+
+        @JsonProperty("status")
+        final public Status status;
+
+        @JsonProperty("message")
+        final public String message;
+
+        @JsonCreator
+        LibraryStatus(@JsonProperty("status") final Status status,
+                      @JsonProperty("message") final String message) {
+            this.status = status;
+            this.message = message;
+        }
+    }
+}
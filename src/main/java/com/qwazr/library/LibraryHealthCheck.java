@@ -0,0 +1,31 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+/**
+ * A library implementing this interface is checked by GET /library/_health.
+ */
+public interface LibraryHealthCheck {
+
+    /**
+     * Check that the library is able to work, e.g. by pinging a remote service.
+     * The check is called from a dedicated thread and must be short: it is reported as failed when
+     * the timeout expires.
+     *
+     * @throws Exception if the library is not healthy, the message is reported
+     */
+    void checkHealth() throws Exception;
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.qwazr.library.annotations.Library;
+import com.qwazr.utils.AnnotationsUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Caches, per class, the fields annotated with {@link Library} as pre-compiled setters.
+ * The resolved library instances are cached too, and resolved again when the version of the library map changes.
+ * A replicated library is resolved at each injection, to inject the replica of the current thread.
+ */
+final class LibraryInjector {
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final LibraryManager libraryManager;
+
+    private final ClassValue<Plan> plans = new ClassValue<>() {
+        @Override
+        protected Plan computeValue(final Class<?> type) {
+            return new Plan(type);
+        }
+    };
+
+    LibraryInjector(final LibraryManager libraryManager) {
+        this.libraryManager = libraryManager;
+    }
+
+    void inject(final Object object) {
+        if (object == null)
+            return;
+        final Plan plan = plans.get(object.getClass());
+        if (plan.setters.length == 0)
+            return;
+        final MethodHandle[] setters = plan.setters;
+        final Resolved resolved = plan.resolve(libraryManager);
+        final LibraryInterface[] libraries = resolved.libraries;
+        final LibraryEntry[] replicated = resolved.replicated;
+        final LibraryStats[] stats = resolved.stats;
+        try {
+            for (int i = 0; i < setters.length; i++) {
+                final LibraryInterface library = replicated[i] == null ? libraries[i] : replicated[i].get();
+                if (library != null) {
+                    setters[i].invokeExact(object, (Object) library);
+                    stats[i].injections.increment();
+                }
+            }
+        }
+        catch (RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param type the class of the object
+     * @return the names of the libraries injected in the annotated fields, which must not be modified
+     */
+    String[] getLibraryNames(final Class<?> type) {
+        return plans.get(type).names;
+    }
+
+    /**
+     * Inject the libraries found by the resolver, without caching them.
+     * Used to inject the dependencies of a library which are loaded but not yet published.
+     *
+     * @param object   the object to inject
+     * @param resolver returns the library with the given name, or null
+     */
+    void inject(final Object object, final Function<String, LibraryEntry> resolver) {
+        final Plan plan = plans.get(object.getClass());
+        try {
+            for (int i = 0; i < plan.setters.length; i++) {
+                final LibraryEntry entry = resolver.apply(plan.names[i]);
+                if (entry != null) {
+                    plan.setters[i].invokeExact(object, (Object) entry.get());
+                    entry.stats.injections.increment();
+                }
+            }
+        }
+        catch (RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final class Plan {
+
+        private final String[] names;
+        private final MethodHandle[] setters;
+        private volatile Resolved resolved;
+
+        private Plan(final Class<?> type) {
+            final List<String> nameList = new ArrayList<>();
+            final List<MethodHandle> setterList = new ArrayList<>();
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            AnnotationsUtils.browseFieldsRecursive(type, field -> {
+                final Library library = field.getAnnotation(Library.class);
+                if (library == null)
+                    return;
+                field.setAccessible(true);
+                try {
+                    setterList.add(lookup.unreflectSetter(field).asType(SETTER_TYPE));
+                }
+                catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+                nameList.add(library.value());
+            });
+            names = nameList.toArray(new String[0]);
+            setters = setterList.toArray(new MethodHandle[0]);
+        }
+
+        private Resolved resolve(final LibraryManager libraryManager) {
+            final LibrarySnapshot snapshot = libraryManager.getSnapshot();
+            final Resolved current = resolved;
+            if (current != null && current.version == snapshot.version)
+                return current;
+            final LibraryInterface[] libraries = new LibraryInterface[names.length];
+            final LibraryEntry[] replicated = new LibraryEntry[names.length];
+            final LibraryStats[] stats = new LibraryStats[names.length];
+            for (int i = 0; i < names.length; i++) {
+                final LibraryEntry entry = snapshot.entries.get(names[i]);
+                if (entry != null) {
+                    libraries[i] = entry.get();
+                    if (entry.instances.length > 1)
+                        replicated[i] = entry;
+                    stats[i] = entry.stats;
+                }
+            }
+            final Resolved next = new Resolved(snapshot.version, libraries, replicated, stats);
+            resolved = next;
+            return next;
+        }
+    }
+
+    private static final class Resolved {
+
+        private final long version;
+        private final LibraryInterface[] libraries;
+        private final LibraryEntry[] replicated;
+        private final LibraryStats[] stats;
+
+        private Resolved(final long version, final LibraryInterface[] libraries, final LibraryEntry[] replicated,
+                         final LibraryStats[] stats) {
+            this.version = version;
+            this.libraries = libraries;
+            this.replicated = replicated;
+            this.stats = stats;
+        }
+    }
+}
@@ -15,8 +15,15 @@
  */
 package com.qwazr.library;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 @JsonTypeInfo(use = JsonTypeInfo.Id.CLASS, include = JsonTypeInfo.As.PROPERTY, property = "class")
 public interface LibraryInterface {
 
@@ -25,4 +32,57 @@ public interface LibraryInterface {
 
     default void load() {
     }
+
+    /**
+     * Called by the manager instead of {@link #load()}, on a thread which is interrupted if the load timeout expires.
+     * A library loading remote resources can return a stage completed when the resources are ready.
+     *
+     * @return the stage completed when the library is loaded
+     */
+    default CompletionStage<Void> loadAsync() {
+        load();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Called by the manager when the library is unloaded, on a thread which is interrupted
+     * if the close timeout expires. By default, an {@link AutoCloseable} library is closed.
+     *
+     * @return the stage completed when the library is closed
+     * @throws Exception if the library cannot be closed
+     */
+    default CompletionStage<Void> closeAsync() throws Exception {
+        if (this instanceof AutoCloseable)
+            ((AutoCloseable) this).close();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * @return the maximum time given to {@link #loadAsync()}, or null to use the timeout of the manager
+     */
+    @JsonIgnore
+    default Duration getLoadTimeout() {
+        return null;
+    }
+
+    /**
+     * A lazy library is loaded ({@link #load()}) on its first use instead of when the configuration file is read.
+     *
+     * @return true if the library should be loaded on first use
+     */
+    @JsonIgnore
+    default boolean isLazy() {
+        return false;
+    }
+
+    /**
+     * The libraries returned by this method, and the libraries injected in the fields annotated with
+     * {@link com.qwazr.library.annotations.Library}, are loaded before this library.
+     *
+     * @return the names of the libraries this library depends on
+     */
+    @JsonIgnore
+    default Collection<String> getDependencies() {
+        return Collections.emptySet();
+    }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.qwazr.utils.ObjectMappers;
+
+import javax.ws.rs.InternalServerErrorException;
+import javax.ws.rs.core.EntityTag;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keep the JSON serialization of the library list and of each library, with their entity tags.
+ * The cache is dropped as soon as the version of the published libraries changes.
+ */
+final class LibraryJsonCache {
+
+    private static final ObjectWriter LIBRARIES_WRITER = ObjectMappers.JSON.writer();
+    private static final ObjectWriter LIBRARY_WRITER = ObjectMappers.JSON.writerFor(LibraryInterface.class);
+
+    private final LibraryManager libraryManager;
+    private volatile Cache cache;
+
+    LibraryJsonCache(final LibraryManager libraryManager) {
+        this.libraryManager = libraryManager;
+        this.cache = new Cache(LibrarySnapshot.EMPTY);
+    }
+
+    private Cache getCache() {
+        final LibrarySnapshot snapshot = libraryManager.getSnapshot();
+        final Cache current = cache;
+        if (current.snapshot == snapshot)
+            return current;
+        final Cache next = new Cache(snapshot);
+        cache = next;
+        return next;
+    }
+
+    /**
+     * @return the serialized list of the libraries
+     */
+    Json getLibraries() {
+        final Cache current = getCache();
+        Json libraries = current.libraries;
+        if (libraries == null)
+            current.libraries = libraries = new Json(serialize(LIBRARIES_WRITER, current.snapshot.libraries));
+        return libraries;
+    }
+
+    /**
+     * @param name the name of the library
+     * @return the serialized library, or null if there is no library with this name
+     */
+    Json getLibrary(final String name) {
+        final Cache current = getCache();
+        final LibraryEntry entry = current.snapshot.entries.get(name);
+        if (entry == null)
+            return null;
+        return current.libraryMap.computeIfAbsent(name, n -> new Json(serialize(LIBRARY_WRITER, entry.get())));
+    }
+
+    private static byte[] serialize(final ObjectWriter writer, final Object value) {
+        try {
+            return writer.writeValueAsBytes(value);
+        }
+        catch (JsonProcessingException e) {
+            throw new InternalServerErrorException("Cannot serialize the library", e);
+        }
+    }
+
+    private static final class Cache {
+
+        private final LibrarySnapshot snapshot;
+        private final ConcurrentHashMap<String, Json> libraryMap;
+        private volatile Json libraries;
+
+        private Cache(final LibrarySnapshot snapshot) {
+            this.snapshot = snapshot;
+            this.libraryMap = new ConcurrentHashMap<>();
+        }
+    }
+
+    static final class Json {
+
+        final byte[] bytes;
+        final EntityTag entityTag;
+
+        private Json(final byte[] bytes) {
+            this.bytes = bytes;
+            this.entityTag = new EntityTag(digest(bytes));
+        }
+
+        private static String digest(final byte[] bytes) {
+            try {
+                final byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+                return Base64.getUrlEncoder().withoutPadding().encodeToString(digest).substring(0, 22);
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new InternalServerErrorException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+import java.lang.reflect.Method;
+
+/**
+ * Serve GET /library and GET /library/{library_name} from the {@link LibraryJsonCache},
+ * with an entity tag, and answer 304 Not Modified when the If-None-Match header matches.
+ * The typed methods of {@link LibraryServiceInterface} are unchanged for the remote clients.
+ * Register it with the service, see {@link LibraryManager#getJsonCacheFilter()}.
+ */
+@Provider
+public final class LibraryJsonCacheFilter implements ContainerRequestFilter {
+
+	private final LibraryJsonCache jsonCache;
+
+	@Context
+	ResourceInfo resourceInfo;
+
+	LibraryJsonCacheFilter(final LibraryJsonCache jsonCache) {
+		this.jsonCache = jsonCache;
+	}
+
+	@Override
+	public void filter(final ContainerRequestContext request) {
+		if (!HttpMethod.GET.equals(request.getMethod()) || resourceInfo == null)
+			return;
+		final Method method = resourceInfo.getResourceMethod();
+		if (method == null || !LibraryServiceInterface.class.isAssignableFrom(method.getDeclaringClass()))
+			return;
+		final LibraryJsonCache.Json json;
+		switch (method.getName()) {
+		case "getLibraries":
+			json = jsonCache.getLibraries();
+			break;
+		case "getLibrary":
+			json = jsonCache.getLibrary(request.getUriInfo().getPathParameters().getFirst("library_name"));
+			break;
+		default:
+			return;
+		}
+		// An unknown library is left to the resource method
+		if (json != null)
+			request.abortWith(toResponse(json, request.getHeaderString(HttpHeaders.IF_NONE_MATCH)));
+	}
+
+	static Response toResponse(final LibraryJsonCache.Json json, final String ifNoneMatch) {
+		if (matches(json, ifNoneMatch))
+			return Response.notModified(json.entityTag).build();
+		return Response.ok(json.bytes, LibraryServiceInterface.APPLICATION_JSON_UTF8).tag(json.entityTag).build();
+	}
+
+	/**
+	 * The weak comparison of RFC 7232: a weak tag matches the strong tag with the same value.
+	 */
+	private static boolean matches(final LibraryJsonCache.Json json, final String ifNoneMatch) {
+		if (ifNoneMatch == null || ifNoneMatch.isEmpty())
+			return false;
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if ("*".equals(tag))
+				return true;
+			if (tag.startsWith("W/"))
+				tag = tag.substring(2);
+			if (tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"") &&
+					tag.substring(1, tag.length() - 1).equals(json.entityTag.getValue()))
+				return true;
+		}
+		return false;
+	}
+}
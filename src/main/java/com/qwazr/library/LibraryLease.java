@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+/**
+ * A lease on a library. While the lease is not closed, the library is not closed by a reload,
+ * unless the drain timeout of the manager is expired.
+ * <pre>
+ * try (final LibraryLease&lt;MyLibrary&gt; lease = libraryManager.leaseLibrary("my_library")) {
+ *     lease.get().doSomething();
+ * }
+ * </pre>
+ *
+ * @param <T> the type of the library
+ */
+final public class LibraryLease<T extends LibraryInterface> implements AutoCloseable {
+
+    private final LibraryEntry entry;
+    private boolean released;
+
+    LibraryLease(final LibraryEntry entry) {
+        this.entry = entry;
+    }
+
+    public T get() {
+        return (T) entry.get();
+    }
+
+    @Override
+    public void close() {
+        if (released)
+            return;
+        released = true;
+        entry.release();
+    }
+}
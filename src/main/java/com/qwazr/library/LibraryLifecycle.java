@@ -0,0 +1,305 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.qwazr.utils.LoggerUtils;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Run the {@link LibraryInterface#loadAsync()} and {@link LibraryInterface#closeAsync()} calls with timeouts.
+ * A load or a close which does not finish in time is cancelled, and its thread is interrupted.
+ * An instance whose load fails or times out is closed once the load has returned.
+ * The libraries are closed concurrently on a bounded pool of threads, and closing any number of libraries
+ * takes at most the close timeout: the closes which have not finished in time are cancelled.
+ */
+final class LibraryLifecycle implements Closeable {
+
+    private static final Logger LOGGER = LoggerUtils.getLogger(LibraryLifecycle.class);
+
+    private final Duration loadTimeout;
+    private final Duration closeTimeout;
+    private final ExecutorService threads;
+
+    /**
+     * @param loadTimeout  the default load timeout, or null to load the libraries in the calling thread without timeout
+     * @param closeTimeout the maximum time given to close a set of libraries
+     * @param parallelism  the number of threads, the other loads and closes wait in a queue
+     */
+    LibraryLifecycle(final Duration loadTimeout, final Duration closeTimeout, final int parallelism) {
+        this.loadTimeout = loadTimeout;
+        this.closeTimeout = closeTimeout;
+        final AtomicInteger threadCounter = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism, 1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "library-lifecycle-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        this.threads = executor;
+    }
+
+    /**
+     * Load an instance, and wait until it is loaded or until its load timeout expires.
+     * If the load fails, the instance is closed.
+     *
+     * @param name     the name of the library
+     * @param instance the instance to load
+     */
+    void load(final String name, final LibraryInterface instance) {
+        final Duration timeout = instance.getLoadTimeout() != null ? instance.getLoadTimeout() : loadTimeout;
+        if (timeout == null) {
+            try {
+                instance.loadAsync().toCompletableFuture().join();
+                return;
+            }
+            catch (CompletionException e) {
+                closeQuietly(name, instance);
+                throw propagate(e.getCause());
+            }
+            catch (RuntimeException | Error e) {
+                closeQuietly(name, instance);
+                throw e;
+            }
+        }
+        final CompletableFuture<Void> terminated = new CompletableFuture<>();
+        final CompletableFuture<Void> future = submit(instance::loadAsync, terminated);
+        try {
+            future.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        catch (TimeoutException e) {
+            future.cancel(true);
+            closeWhenTerminated(name, instance, terminated);
+            throw new IllegalStateException("The library " + name + " has not been loaded within " + timeout);
+        }
+        catch (InterruptedException e) {
+            future.cancel(true);
+            closeWhenTerminated(name, instance, terminated);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading the library " + name, e);
+        }
+        catch (ExecutionException e) {
+            closeWhenTerminated(name, instance, terminated);
+            throw propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Close an abandoned instance, once the interrupted call to {@link LibraryInterface#loadAsync()} has returned
+     */
+    private void closeWhenTerminated(final String name, final LibraryInterface instance,
+                                     final CompletableFuture<Void> terminated) {
+        terminated.thenRun(() -> closeQuietly(name, instance));
+    }
+
+    /**
+     * Close an instance on the lifecycle threads, or in the calling thread if the lifecycle is already closed
+     */
+    void closeQuietly(final String name, final LibraryInterface instance) {
+        try {
+            close(name, instance);
+        }
+        catch (RejectedExecutionException rejected) {
+            try {
+                instance.closeAsync();
+            }
+            catch (Exception e) {
+                LOGGER.log(Level.WARNING, e, () -> "Error while closing the library " + name);
+            }
+        }
+    }
+
+    /**
+     * Close an instance on the lifecycle threads. The errors are logged.
+     *
+     * @param name     the name of the library
+     * @param instance the instance to close
+     * @return the future completed when the instance is closed, cancelling it interrupts the close
+     */
+    CompletableFuture<Void> close(final String name, final LibraryInterface instance) {
+        final CompletableFuture<Void> future = submit(instance::closeAsync);
+        future.whenComplete((result, error) -> {
+            if (error instanceof CancellationException)
+                LOGGER.warning(() -> "The close of the library " + name + " has been cancelled");
+            else if (error != null)
+                LOGGER.log(Level.WARNING, error, () -> "Error while closing the library " + name);
+        });
+        return future;
+    }
+
+    /**
+     * Close the entries concurrently, and wait at most the close timeout.
+     * The closes which are still running are then cancelled.
+     *
+     * @param entries the entries to close
+     */
+    void closeAll(final Collection<LibraryEntry> entries) {
+        if (entries.isEmpty())
+            return;
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(entries.size());
+        entries.forEach(entry -> futures.add(entry.closeAsync()));
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                    .get(closeTimeout.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        catch (TimeoutException e) {
+            abandon(entries, futures);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            // Not expected: the entries never fail, the errors are logged by close(name, instance)
+            LOGGER.log(Level.WARNING, e.getCause(), () -> "Error while closing the libraries");
+        }
+    }
+
+    /**
+     * Close the entries concurrently without waiting for them
+     *
+     * @param entries the entries to close
+     */
+    void closeAllAsync(final Collection<LibraryEntry> entries) {
+        if (entries.isEmpty())
+            return;
+        // No thread of the pool waits for the other closes
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(entries.size());
+        entries.forEach(entry -> futures.add(entry.closeAsync()));
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .orTimeout(closeTimeout.toNanos(), TimeUnit.NANOSECONDS)
+                .whenComplete((result, error) -> {
+                    if (error instanceof TimeoutException)
+                        abandon(entries, futures);
+                });
+    }
+
+    /**
+     * Cancel the closes which are still running or waiting for a thread
+     */
+    private static void abandon(final Collection<LibraryEntry> entries, final List<CompletableFuture<Void>> futures) {
+        final List<String> names = new ArrayList<>();
+        int i = 0;
+        for (final LibraryEntry entry : entries)
+            if (!futures.get(i++).isDone())
+                names.add(entry.name);
+        LOGGER.warning(() -> "Close timeout expired, the libraries still closing are abandoned: " + names);
+        entries.forEach(LibraryEntry::cancelClose);
+    }
+
+    private CompletableFuture<Void> submit(final Callable<CompletionStage<Void>> callable) {
+        return submit(callable, null);
+    }
+
+    /**
+     * Run the callable on a lifecycle thread. Cancelling the returned future interrupts the thread,
+     * and cancels the stage returned by the callable.
+     *
+     * @param terminated if not null, completed when the callable has returned, or when it will never be called
+     */
+    private CompletableFuture<Void> submit(final Callable<CompletionStage<Void>> callable,
+                                           final CompletableFuture<Void> terminated) {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        final AtomicReference<CompletionStage<Void>> stage = new AtomicReference<>();
+        final AtomicBoolean started = new AtomicBoolean();
+        final FutureTask<Void> task = new FutureTask<Void>(() -> {
+            started.set(true);
+            try {
+                final CompletionStage<Void> called = callable.call();
+                stage.set(called);
+                if (result.isCancelled())
+                    cancel(called);
+                called.whenComplete((value, error) -> {
+                    if (error != null)
+                        result.completeExceptionally(error);
+                    else
+                        result.complete(null);
+                });
+            }
+            finally {
+                if (terminated != null)
+                    terminated.complete(null);
+            }
+            return null;
+        }) {
+            @Override
+            protected void setException(final Throwable error) {
+                super.setException(error);
+                result.completeExceptionally(error);
+            }
+
+            @Override
+            protected void done() {
+                if (terminated != null && isCancelled() && !started.get())
+                    terminated.complete(null);
+            }
+        };
+        result.whenComplete((value, error) -> {
+            if (!result.isCancelled())
+                return;
+            task.cancel(true);
+            final CompletionStage<Void> called = stage.get();
+            if (called != null)
+                cancel(called);
+        });
+        threads.execute(task);
+        return result;
+    }
+
+    private static void cancel(final CompletionStage<Void> stage) {
+        try {
+            stage.toCompletableFuture().cancel(true);
+        }
+        catch (UnsupportedOperationException e) {
+            // A stage which cannot be converted cannot be cancelled
+        }
+    }
+
+    private static RuntimeException propagate(final Throwable cause) {
+        if (cause instanceof RuntimeException)
+            return (RuntimeException) cause;
+        if (cause instanceof Error)
+            throw (Error) cause;
+        return new RuntimeException(cause);
+    }
+
+    @Override
+    public void close() {
+        threads.shutdownNow();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.qwazr.utils.ObjectMappers;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Write a page of the library list directly to the output stream, in name order:
+ * <pre>
+ * {"libraries":[{"name":"...","class":"..."}],"next":"..."}
+ * </pre>
+ * The "next" cursor is the name of the last library written, it is present only if more libraries match.
+ */
+final class LibraryListWriter implements StreamingOutput {
+
+    private final LibrarySnapshot snapshot;
+    private final String cursor;
+    private final int limit;
+    private final String prefix;
+    private final String className;
+
+    /**
+     * @param snapshot  the libraries to list
+     * @param cursor    the libraries are listed after this name, or from the first one if null
+     * @param limit     the maximum number of libraries, no limit if null or not positive
+     * @param prefix    the optional prefix of the names
+     * @param className the optional class name of the libraries
+     */
+    LibraryListWriter(final LibrarySnapshot snapshot, final String cursor, final Integer limit,
+                      final String prefix, final String className) {
+        this.snapshot = snapshot;
+        this.cursor = cursor == null || cursor.isEmpty() ? null : cursor;
+        this.limit = limit == null || limit <= 0 ? Integer.MAX_VALUE : limit;
+        this.prefix = prefix == null || prefix.isEmpty() ? null : prefix;
+        this.className = className == null || className.isEmpty() ? null : className;
+    }
+
+    private static int indexAfter(final String[] names, final String name, final boolean inclusive) {
+        final int pos = Arrays.binarySearch(names, name);
+        if (pos < 0)
+            return -pos - 1;
+        return inclusive ? pos : pos + 1;
+    }
+
+    @Override
+    public void write(final OutputStream output) throws IOException {
+        final String[] names = snapshot.getSortedNames();
+        int pos = cursor == null ? 0 : indexAfter(names, cursor, false);
+        if (prefix != null)
+            pos = Math.max(pos, indexAfter(names, prefix, true));
+        try (final JsonGenerator generator = ObjectMappers.JSON.getFactory()
+                .createGenerator(output, JsonEncoding.UTF8)) {
+            generator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("libraries");
+            int count = 0;
+            String last = null;
+            boolean hasNext = false;
+            for (; pos < names.length; pos++) {
+                final String name = names[pos];
+                if (prefix != null && !name.startsWith(prefix))
+                    break;
+                final String libraryClass = snapshot.libraries.get(name);
+                if (className != null && !className.equals(libraryClass))
+                    continue;
+                if (count == limit) {
+                    hasNext = true;
+                    break;
+                }
+                generator.writeStartObject();
+                generator.writeStringField("name", name);
+                generator.writeStringField("class", libraryClass);
+                generator.writeEndObject();
+                last = name;
+                count++;
+            }
+            generator.writeEndArray();
+            if (hasNext)
+                generator.writeStringField("next", last);
+            generator.writeEndObject();
+        }
+    }
+}
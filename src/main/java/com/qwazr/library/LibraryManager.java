@@ -15,10 +15,8 @@
  */
 package com.qwazr.library;
 
-import com.qwazr.library.annotations.Library;
+import com.fasterxml.jackson.core.JsonParser;
 import com.qwazr.server.GenericServer;
-import com.qwazr.utils.AnnotationsUtils;
-import com.qwazr.utils.IOUtils;
 import com.qwazr.utils.LoggerUtils;
 import com.qwazr.utils.ObjectMappers;
 import com.qwazr.utils.ReadOnlyMap;
@@ -26,15 +24,31 @@ import com.qwazr.utils.concurrent.ReadWriteLock;
 import com.qwazr.utils.reflection.InstancesSupplier;
 import io.undertow.security.idm.IdentityManager;
 
-import javax.ws.rs.InternalServerErrorException;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -43,57 +57,351 @@ public class LibraryManager extends ReadOnlyMap<String, LibraryInterface>
 
     private static final Logger LOGGER = LoggerUtils.getLogger(LibraryManager.class);
 
+    static final String CONFIGURATION_CACHE_DIRECTORY = "library-cache";
+
     private final Path dataDirectory;
     private final LibraryServiceInterface service;
+    private final LibraryJsonCacheFilter jsonCacheFilter;
     private final InstancesSupplier instancesSupplier;
+    private final LibraryInjector injector;
+    private final LibraryFileWatcher watcher;
+    private final LibraryReclaimer reclaimer;
+    private final LibraryLifecycle lifecycle;
+    private final LibraryMetrics metrics;
+    private final LibraryHealth health;
+    private final LibraryExecutors executors;
+    private final LibraryConfigurationCache configurationCache;
+    private final LibraryRealms realms;
+    private final LibrarySecrets secrets;
+    private final int loadParallelism;
 
     private final ReadWriteLock mapLock;
-    private final Map<Path, Map<String, LibraryInterface>> libraryFileMap;
+    private final Map<Path, Map<String, LibraryEntry>> libraryFileMap;
+    private final Map<String, TreeMap<Path, LibraryEntry>> libraryDefinitions;
+    private final Map<String, Set<String>> dependentNames;
+    private volatile LibrarySnapshot snapshot;
+    private final Map<String, LibraryEntry> loadingEntries;
 
-    public LibraryManager(final Path dataDirectory, final Collection<Path> etcFiles,
-                          final InstancesSupplier instancesSupplier) {
-        this.dataDirectory = dataDirectory;
+    private LibraryManager(final Builder builder) {
+        this.dataDirectory = builder.dataDirectory;
         this.service = new LibraryServiceImpl(this);
+        this.jsonCacheFilter = new LibraryJsonCacheFilter(new LibraryJsonCache(this));
+        this.injector = new LibraryInjector(this);
         this.libraryFileMap = new HashMap<>();
+        this.libraryDefinitions = new HashMap<>();
+        this.dependentNames = new HashMap<>();
+        this.snapshot = LibrarySnapshot.EMPTY;
+        setMap(new Libraries());
+        this.loadingEntries = new ConcurrentHashMap<>();
         this.mapLock = ReadWriteLock.stamped();
-        this.instancesSupplier = instancesSupplier == null ? InstancesSupplier.withConcurrentMap() : instancesSupplier;
-        if (etcFiles != null)
-            etcFiles.forEach(this::loadLibrarySet);
+        this.lifecycle = new LibraryLifecycle(builder.loadTimeout, builder.closeTimeout,
+                Math.max(builder.loadParallelism, Runtime.getRuntime().availableProcessors()));
+        this.reclaimer = new LibraryReclaimer(builder.drainTimeout, builder.closeGracePeriod, lifecycle);
+        this.metrics = new LibraryMetrics(builder.jmxName);
+        this.health = new LibraryHealth(this, builder.healthCheckTimeout, builder.healthCheckTtl,
+                builder.healthCheckParallelism);
+        this.executors = new LibraryExecutors(builder.virtualThreads, builder.executorThreads, builder.drainTimeout);
+        this.configurationCache = builder.configurationCache && dataDirectory != null ?
+                new LibraryConfigurationCache(dataDirectory.resolve(CONFIGURATION_CACHE_DIRECTORY)) :
+                null;
+        this.secrets = new LibrarySecrets(builder.secretDecryptor);
+        this.realms = new LibraryRealms(this, builder.credentialCacheTtl, builder.credentialCacheSize);
+        this.instancesSupplier =
+                builder.instancesSupplier == null ? InstancesSupplier.withConcurrentMap() : builder.instancesSupplier;
+        this.loadParallelism = builder.loadParallelism;
+        try {
+            loadLibrarySets(builder.etcFiles);
+        }
+        catch (RuntimeException | Error e) {
+            // The MBeans, the executors and the threads would never be released
+            close();
+            throw e;
+        }
+        this.watcher = builder.watchDebounce == null ? null : startWatcher(builder);
+    }
+
+    private LibraryFileWatcher startWatcher(final Builder builder) {
+        try {
+            return new LibraryFileWatcher(this, builder.etcFiles, builder.watchDebounce);
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.SEVERE, e, () -> "Cannot watch the library configuration files");
+            return null;
+        }
+    }
+
+    public LibraryManager(final Path dataDirectory, final Collection<Path> etcFiles,
+                          final InstancesSupplier instancesSupplier) {
+        this(of(dataDirectory).etcFiles(etcFiles).instancesSupplier(instancesSupplier));
     }
 
     public LibraryManager(final Path dataDirectory, final Collection<Path> etcFiles) {
         this(dataDirectory, etcFiles, null);
     }
 
+    public static Builder of(final Path dataDirectory) {
+        return new Builder(dataDirectory);
+    }
+
     final public LibraryServiceInterface getService() {
         return service;
     }
 
+    /**
+     * The filter serving the JSON of GET /library and GET /library/{library_name} from a cache,
+     * with ETag and If-None-Match support. Register it as a singleton next to the service.
+     *
+     * @return the filter of the service
+     */
+    final public LibraryJsonCacheFilter getJsonCacheFilter() {
+        return jsonCacheFilter;
+    }
+
     final public InstancesSupplier getInstancesSupplier() {
         return instancesSupplier;
     }
 
     @Override
     public void close() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            }
+            catch (IOException e) {
+                LOGGER.log(Level.WARNING, e, () -> "Error while closing the library watcher");
+            }
+        }
+        final List<LibraryEntry> entries = new ArrayList<>();
         mapLock.write(() -> {
+            libraryFileMap.values().forEach(map -> entries.addAll(map.values()));
             libraryFileMap.clear();
-            IOUtils.closeObjects(this.values());
-            setMap(Collections.emptyMap());
+            libraryDefinitions.clear();
+            dependentNames.clear();
+            publishMap(LibraryTrie.EMPTY);
         });
+        // Concurrently, within the close timeout, without holding the lock
+        reclaimer.closeAll(entries);
+        // After the libraries, which may submit tasks while closing
+        executors.close();
+        lifecycle.close();
+        metrics.close();
+        health.close();
+        secrets.close();
     }
 
     final public <T extends LibraryInterface> T getLibrary(final String name) {
-        return (T) super.get(name);
+        final LibraryEntry entry = lookup(name);
+        if (entry == null)
+            return null;
+        entry.stats.lookups.increment();
+        return (T) entry.get();
+    }
+
+    /**
+     * Acquire a lease on a library. The library will not be closed by a reload until the lease is closed,
+     * or until the drain timeout is expired.
+     *
+     * @param name the name of the library
+     * @param <T>  the type of the library
+     * @return the lease, which must be closed, or null if there is no library with this name
+     */
+    final public <T extends LibraryInterface> LibraryLease<T> leaseLibrary(final String name) {
+        for (; ; ) {
+            final LibraryEntry entry = snapshot.entries.get(name);
+            if (entry == null)
+                return null;
+            entry.get();
+            if (entry.tryAcquire()) {
+                entry.stats.lookups.increment();
+                return new LibraryLease<>(entry);
+            }
+        }
+    }
+
+    /**
+     * Return a named executor, to be used by the libraries instead of their own thread pools.
+     * All the executors share the same threads: virtual threads when the JVM provides them,
+     * otherwise a bounded pool of platform threads.
+     * The executors are shut down when the manager is closed.
+     * Each call returns a new handle, that the library can shut down without stopping the other handles.
+     *
+     * @param name           the name of the executor, usually the name of the library
+     * @param maxConcurrency the maximum number of tasks running at the same time,
+     *                       only used by the first call with this name
+     * @return a new handle on the executor with this name
+     */
+    final public LibraryExecutor getExecutor(final String name, final int maxConcurrency) {
+        return executors.get(name, maxConcurrency);
+    }
+
+    /**
+     * @param name the name of the executor, usually the name of the library
+     * @return a new handle on the executor with this name, without concurrency limit if it does not exist yet
+     * @see #getExecutor(String, int)
+     */
+    final public LibraryExecutor getExecutor(final String name) {
+        return executors.get(name, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the usage statistics of the libraries
+     */
+    final public LibraryMetrics.Report getMetrics() {
+        return metrics.getReport(reclaimer.getPendingCloseCount(),
+                executors.getReports(LibraryMetrics.ExecutorReport::of), getPoolStats());
+    }
+
+    /**
+     * @return the statistics of the loaded pools, by library name. The replica i of a library is named "name#i".
+     */
+    private Map<String, AbstractPooledLibrary.PoolStats> getPoolStats() {
+        final Map<String, AbstractPooledLibrary.PoolStats> pools = new TreeMap<>();
+        snapshot.entries.forEach((name, entry) -> {
+            if (!(entry.library instanceof AbstractPooledLibrary) || !entry.isLoaded())
+                return;
+            for (int i = 0; i < entry.instances.length; i++)
+                pools.put(entry.instances.length == 1 ? name : name + '#' + i,
+                        ((AbstractPooledLibrary<?>) entry.instances[i]).getPoolStats());
+        });
+        return pools;
+    }
+
+    /**
+     * Check the health of the libraries implementing {@link LibraryHealthCheck}.
+     * The report is cached for the duration of the health check TTL.
+     *
+     * @return the health report
+     */
+    final public LibraryHealth.Report getHealth() {
+        return health.getReport();
+    }
+
+    /**
+     * @return the number of replaced library instances waiting for their leases to be released
+     */
+    final public int getPendingCloseCount() {
+        return reclaimer.getPendingCloseCount();
+    }
+
+    /**
+     * While libraries are loaded, the loaded libraries are found before the published ones,
+     * so that a library can look up its dependencies during its load() call.
+     *
+     * @param name the name of the library
+     * @return the library entry, or null if there is no library with this name
+     */
+    private LibraryEntry lookup(final Object name) {
+        if (name != null && !loadingEntries.isEmpty()) {
+            final LibraryEntry entry = loadingEntries.get(name);
+            if (entry != null)
+                return entry;
+        }
+        return snapshot.entries.get(name);
+    }
+
+    /**
+     * The map view of the published libraries, served by {@link ReadOnlyMap}.
+     * It reads the current snapshot on each call.
+     */
+    private final class Libraries extends AbstractMap<String, LibraryInterface> {
+
+        /**
+         * Return the library, loading it first if the library is lazy
+         *
+         * @param name the name of the library
+         * @return the library instance, or null if there is no library with this name
+         */
+        @Override
+        public LibraryInterface get(final Object name) {
+            final LibraryEntry entry = lookup(name);
+            if (entry == null)
+                return null;
+            entry.stats.lookups.increment();
+            return entry.get();
+        }
+
+        @Override
+        public boolean containsKey(final Object name) {
+            return snapshot.entries.containsKey(name);
+        }
+
+        @Override
+        public int size() {
+            return snapshot.entries.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return snapshot.entries.isEmpty();
+        }
+
+        /**
+         * Iterate over the libraries. Lazy libraries are not loaded.
+         *
+         * @param action the action called for each library
+         */
+        @Override
+        public void forEach(final BiConsumer<? super String, ? super LibraryInterface> action) {
+            snapshot.entries.forEach((name, entry) -> action.accept(name, entry.library));
+        }
+
+        /**
+         * @return a read-only view of the current libraries. Lazy libraries are not loaded.
+         */
+        @Override
+        public Set<Entry<String, LibraryInterface>> entrySet() {
+            final Map<String, LibraryEntry> entries = snapshot.entries;
+            return new AbstractSet<>() {
+
+                @Override
+                public Iterator<Entry<String, LibraryInterface>> iterator() {
+                    final Iterator<LibraryEntry> iterator = entries.values().iterator();
+                    return new Iterator<>() {
+
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, LibraryInterface> next() {
+                            final LibraryEntry entry = iterator.next();
+                            return new SimpleImmutableEntry<>(entry.name, entry.library);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return entries.size();
+                }
+            };
+        }
     }
 
     final public Path getDataDirectory() {
         return dataDirectory;
     }
 
+    /**
+     * @return the current published libraries
+     */
+    final LibrarySnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return a number which is incremented each time the library map changes
+     */
+    final long getVersion() {
+        return snapshot.version;
+    }
+
+    /**
+     * @return a copy of the library names and their class names, sorted by name
+     */
     public Map<String, String> getLibraries() {
-        final Map<String, String> map = new LinkedHashMap<>();
-        this.forEach((name, library) -> map.put(name, library.getClass().getName()));
-        return map;
+        return new LinkedHashMap<>(snapshot.libraries);
     }
 
     /**
@@ -102,29 +410,12 @@ public class LibraryManager extends ReadOnlyMap<String, LibraryInterface>
      * @param object the class instance to inject
      */
     final void inject(final Object object) {
-        if (object == null)
-            return;
-        AnnotationsUtils.browseFieldsRecursive(object.getClass(), field -> {
-            final Library library = field.getAnnotation(Library.class);
-            if (library == null)
-                return;
-            final LibraryInterface libraryItem = getLibrary(library.value());
-            if (libraryItem == null)
-                return;
-            field.setAccessible(true);
-            try {
-                field.set(object, libraryItem);
-            }
-            catch (IllegalAccessException e) {
-                throw new RuntimeException(e);
-            }
-        });
+        injector.inject(object);
     }
 
-    private void loadLibrarySet(final Path jsonFile) {
+    void loadLibrarySet(final Path jsonFile) {
         try {
-            final LibraryConfiguration configuration =
-                    ObjectMappers.JSON.readValue(jsonFile.toFile(), LibraryConfiguration.class);
+            final LibraryConfiguration configuration = readLibrarySet(jsonFile);
 
             if (configuration == null || configuration.library == null) {
                 unloadLibrarySet(jsonFile);
@@ -133,51 +424,534 @@ public class LibraryManager extends ReadOnlyMap<String, LibraryInterface>
 
             LOGGER.info(() -> "Load library configuration file: " + jsonFile.toAbsolutePath());
 
-            mapLock.writeEx(() -> {
-                configuration.library.values().forEach((library) -> {
-                    try {
-                        library.load(this);
-                        library.load();
-                    }
-                    catch (Exception e) {
-                        throw new RuntimeException(e);
-                    }
+            final Map<Path, Map<String, LibraryEntry>> libraryFiles =
+                    loadLibraries(Map.of(jsonFile, configuration), Runnable::run);
+            final Map<String, LibraryEntry> entries = libraryFiles.get(jsonFile);
+            final Set<String> dependents = new HashSet<>();
+            mapLock.write(() -> {
+                final Map<String, LibraryEntry> previous = libraryFileMap.put(jsonFile, entries);
+                final Set<String> changedNames = new HashSet<>();
+                updateDefinitions(jsonFile, previous, entries, changedNames);
+                publishChanges(changedNames, dependents);
+                if (previous != null)
+                    retire(previous.values());
+            });
+            endLoading(libraryFiles);
+            reinject(dependents);
+            metrics.fileLoads.increment();
+
+        }
+        catch (IOException e) {
+            metrics.fileFailures.increment();
+            LOGGER.log(Level.SEVERE, e, () -> "Cannot load the file: " + jsonFile);
+        }
+        catch (RuntimeException e) {
+            metrics.fileFailures.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the library sets, load all their libraries following their dependencies,
+     * then publish them in one merge step.
+     * When the load parallelism is greater than one, the files are read concurrently,
+     * and the libraries which don't depend on each other are loaded concurrently on a fork-join pool.
+     * If any library fails, the libraries already loaded are closed, and the exception is thrown.
+     *
+     * @param etcFiles the configuration files
+     */
+    private void loadLibrarySets(final Collection<Path> etcFiles) {
+        if (etcFiles.isEmpty())
+            return;
+        final ExecutorService executorService = loadParallelism > 1 ? newLoaderPool(loadParallelism) : null;
+        final Executor executor = executorService == null ? Runnable::run : executorService;
+        try {
+            final Map<Path, CompletableFuture<LibraryConfiguration>> futures = new LinkedHashMap<>();
+            for (final Path jsonFile : etcFiles)
+                futures.put(jsonFile, CompletableFuture.supplyAsync(() -> readLibrarySetQuietly(jsonFile), executor));
+            final Map<Path, LibraryConfiguration> configurations = new LinkedHashMap<>();
+            for (final Map.Entry<Path, CompletableFuture<LibraryConfiguration>> entry : futures.entrySet()) {
+                final LibraryConfiguration configuration = join(entry.getValue());
+                if (configuration == null || configuration.library == null)
+                    continue;
+                LOGGER.info(() -> "Load library configuration file: " + entry.getKey().toAbsolutePath());
+                configurations.put(entry.getKey(), configuration);
+            }
+            final Map<Path, Map<String, LibraryEntry>> libraryFiles = loadLibraries(configurations, executor);
+            final Set<String> dependents = new HashSet<>();
+            mapLock.write(() -> {
+                final Set<String> changedNames = new HashSet<>();
+                libraryFiles.forEach((jsonFile, entries) -> {
+                    final Map<String, LibraryEntry> previous = libraryFileMap.put(jsonFile, entries);
+                    updateDefinitions(jsonFile, previous, entries, changedNames);
+                    if (previous != null)
+                        retire(previous.values());
                 });
-                libraryFileMap.put(jsonFile, configuration.library);
-                buildGlobalMap();
+                publishChanges(changedNames, dependents);
             });
+            endLoading(libraryFiles);
+            reinject(dependents);
+            metrics.fileLoads.add(libraryFiles.size());
+        }
+        catch (RuntimeException e) {
+            metrics.fileFailures.increment();
+            throw e;
+        }
+        finally {
+            if (executorService != null)
+                executorService.shutdownNow();
+        }
+    }
+
+    private static ExecutorService newLoaderPool(final int parallelism) {
+        return new ForkJoinPool(parallelism, pool -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("library-loader-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    private static <T> T join(final CompletableFuture<T> future) {
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw e;
+        }
+    }
 
+    private LibraryConfiguration readLibrarySetQuietly(final Path jsonFile) {
+        try {
+            return readLibrarySet(jsonFile);
         }
         catch (IOException e) {
+            metrics.fileFailures.increment();
             LOGGER.log(Level.SEVERE, e, () -> "Cannot load the file: " + jsonFile);
+            return null;
+        }
+    }
+
+    private LibraryConfiguration readLibrarySet(final Path jsonFile) throws IOException {
+        if (configurationCache != null)
+            return configurationCache.read(jsonFile);
+        try (final JsonParser parser = ObjectMappers.JSON.getFactory().createParser(jsonFile.toFile())) {
+            return LibraryConfiguration.read(parser);
+        }
+    }
+
+    /**
+     * Load the libraries, each one after the libraries it depends on. The lazy libraries will be loaded on first use.
+     * The loaded libraries can be looked up until {@link #endLoading(Map)} is called.
+     * If a library fails, the libraries already loaded are closed.
+     *
+     * @param configurations the libraries declared by each configuration file
+     * @param executor       the executor running the loads
+     * @return the loaded libraries of each file
+     */
+    private Map<Path, Map<String, LibraryEntry>> loadLibraries(
+            final Map<Path, LibraryConfiguration> configurations, final Executor executor) {
+        final Map<Path, Map<String, LibraryEntry>> libraryFiles = new LinkedHashMap<>();
+        configurations.forEach((jsonFile, configuration) -> {
+            final Map<String, LibraryEntry> entries = new LinkedHashMap<>();
+            configuration.library.keySet().forEach(name -> entries.put(name,
+                    new LibraryEntry(name, configuration.getInstances(name), metrics.getStats(name), lifecycle)));
+            libraryFiles.put(jsonFile, entries);
+        });
+        try {
+            new LibraryGraph(libraryFiles, injector::getLibraryNames, snapshot.entries::containsKey)
+                    .load(executor, this::loadLibrary, entry -> loadingEntries.put(entry.name, entry),
+                            lifecycle::closeAll);
+        }
+        catch (RuntimeException | Error e) {
+            endLoading(libraryFiles);
+            throw e;
         }
+        return libraryFiles;
     }
 
-    private void unloadLibrarySet(Path jsonFile) {
+    private void loadLibrary(final LibraryEntry entry) {
+        for (final LibraryInterface instance : entry.instances) {
+            injector.inject(instance, this::lookup);
+            if (instance instanceof AbstractPasswordLibrary)
+                ((AbstractPasswordLibrary) instance).resolveSecret(secrets);
+        }
+        entry.load(this);
+    }
+
+    private void endLoading(final Map<Path, Map<String, LibraryEntry>> libraryFiles) {
+        libraryFiles.values()
+                .forEach(entries -> entries.values().forEach(entry -> loadingEntries.remove(entry.name, entry)));
+    }
+
+    void unloadLibrarySet(final Path jsonFile) {
+        final Set<String> dependents = new HashSet<>();
         mapLock.write(() -> {
-            final Map<String, LibraryInterface> map = libraryFileMap.remove(jsonFile);
+            final Map<String, LibraryEntry> map = libraryFileMap.remove(jsonFile);
             if (map == null)
                 return;
             LOGGER.info(() -> "Unload library configuration file: " + jsonFile.toAbsolutePath());
-            buildGlobalMap();
-            IOUtils.closeObjects(map.values());
+            final Set<String> changedNames = new HashSet<>();
+            updateDefinitions(jsonFile, map, null, changedNames);
+            publishChanges(changedNames, dependents);
+            retire(map.values());
+            metrics.fileUnloads.increment();
         });
+        reinject(dependents);
     }
 
-    private void buildGlobalMap() {
-        final Map<String, LibraryInterface> libraries = new HashMap<>();
-        libraryFileMap.forEach((file, libraryMap) -> libraries.putAll(libraryMap));
-        setMap(libraries);
+    /**
+     * Inject again the annotated fields of the published libraries which depend on a replaced or removed library.
+     * A removed dependency keeps its previous value.
+     *
+     * @param dependents the names of the libraries to inject again
+     */
+    private void reinject(final Set<String> dependents) {
+        for (final String name : dependents) {
+            final LibraryEntry entry = snapshot.entries.get(name);
+            if (entry == null)
+                continue;
+            for (final LibraryInterface instance : entry.instances)
+                injector.inject(instance, this::lookup);
+        }
     }
 
+    /**
+     * Close the libraries which have been replaced or removed, once the grace period is expired
+     * and their leases are released, or when the drain timeout is expired.
+     *
+     * @param entries the libraries which are no more published
+     */
+    private void retire(final Collection<LibraryEntry> entries) {
+        reclaimer.retire(entries);
+    }
+
+    /**
+     * Update the definitions of the libraries declared by one file.
+     * When a name is declared by several files, the file with the greatest path wins.
+     *
+     * @param jsonFile     the changed file
+     * @param previous     the libraries previously declared by the file, or null
+     * @param next         the libraries now declared by the file, or null if the file is unloaded
+     * @param changedNames collects the names which must be resolved again
+     */
+    private void updateDefinitions(final Path jsonFile,
+                                   final Map<String, LibraryEntry> previous,
+                                   final Map<String, LibraryEntry> next,
+                                   final Set<String> changedNames) {
+        if (previous != null) {
+            previous.keySet().forEach(name -> {
+                final TreeMap<Path, LibraryEntry> definitions = libraryDefinitions.get(name);
+                if (definitions != null && definitions.remove(jsonFile) != null && definitions.isEmpty())
+                    libraryDefinitions.remove(name);
+            });
+            changedNames.addAll(previous.keySet());
+        }
+        if (next != null) {
+            next.forEach((name, library) -> libraryDefinitions.computeIfAbsent(name, n -> new TreeMap<>())
+                    .put(jsonFile, library));
+            changedNames.addAll(next.keySet());
+        }
+    }
+
+    /**
+     * Update the global map by resolving again only the changed names.
+     * The new map shares all the unchanged nodes with the previous one.
+     *
+     * @param changedNames the names declared by the changed files
+     * @param dependents   collects the unchanged libraries having an annotated field on a changed name
+     */
+    private void publishChanges(final Set<String> changedNames, final Set<String> dependents) {
+        if (changedNames.isEmpty())
+            return;
+        LibraryTrie libraries = snapshot.entries;
+        for (final String name : changedNames) {
+            final TreeMap<Path, LibraryEntry> definitions = libraryDefinitions.get(name);
+            final LibraryEntry previous = libraries.get(name);
+            final LibraryEntry entry = definitions == null ? null : definitions.lastEntry().getValue();
+            if (previous == entry)
+                continue;
+            final Set<String> names = dependentNames.get(name);
+            if (names != null)
+                dependents.addAll(names);
+            if (previous != null)
+                updateDependents(name, previous, false);
+            if (entry == null) {
+                libraries = libraries.without(name);
+                metrics.remove(previous.stats);
+                continue;
+            }
+            if (previous != null)
+                entry.stats.reloads.increment();
+            metrics.publish(entry.stats);
+            updateDependents(name, entry, true);
+            libraries = libraries.with(name, entry);
+        }
+        dependents.removeAll(changedNames);
+        publishMap(libraries);
+    }
+
+    /**
+     * Maintain the index of the libraries having an annotated field on each name
+     *
+     * @param name  the name of the published library
+     * @param entry the published library
+     * @param add   true when the library is published, false when it is replaced or removed
+     */
+    private void updateDependents(final String name, final LibraryEntry entry, final boolean add) {
+        for (final String dependency : injector.getLibraryNames(entry.library.getClass())) {
+            if (add)
+                dependentNames.computeIfAbsent(dependency, d -> new HashSet<>()).add(name);
+            else {
+                final Set<String> names = dependentNames.get(dependency);
+                if (names != null && names.remove(name) && names.isEmpty())
+                    dependentNames.remove(dependency);
+            }
+        }
+    }
+
+    /**
+     * Publish the new global map with a single volatile write.
+     * The readers never take a lock.
+     *
+     * @param libraries the new global map
+     */
+    private void publishMap(final LibraryTrie libraries) {
+        snapshot = snapshot.next(libraries);
+    }
+
+    /**
+     * The resolution of the realm is cached until the library map changes.
+     * If the credential cache is enabled, the returned identity manager remembers the verified passwords.
+     *
+     * @param realm the name of the library implementing {@link IdentityManager}
+     * @return the identity manager, or null if there is no library with this name
+     */
     @Override
     public IdentityManager getIdentityManager(final String realm) {
-        final LibraryInterface library = get(realm);
-        if (library == null)
-            return null;
-        if (!(library instanceof IdentityManager))
-            throw new InternalServerErrorException("This is a not a realm connector: " + realm);
-        return (IdentityManager) library;
+        return realms.get(realm);
+    }
+
+    public static class Builder {
+
+        private final Path dataDirectory;
+        private final Set<Path> etcFiles;
+        private InstancesSupplier instancesSupplier;
+        private int loadParallelism;
+        private Duration watchDebounce;
+        private Duration drainTimeout = Duration.ofSeconds(30);
+        private Duration closeGracePeriod = Duration.ofSeconds(10);
+        private String jmxName;
+        private Duration healthCheckTimeout = Duration.ofSeconds(5);
+        private Duration healthCheckTtl = Duration.ofSeconds(2);
+        private int healthCheckParallelism = 16;
+        private boolean virtualThreads = true;
+        private int executorThreads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        private boolean configurationCache;
+        private Duration credentialCacheTtl;
+        private long credentialCacheSize;
+        private SecretDecryptor secretDecryptor;
+        private Duration loadTimeout;
+        private Duration closeTimeout = Duration.ofSeconds(30);
+
+        private Builder(final Path dataDirectory) {
+            this.dataDirectory = dataDirectory;
+            this.etcFiles = new LinkedHashSet<>();
+        }
+
+        public Builder etcFile(final Path etcFile) {
+            if (etcFile != null)
+                etcFiles.add(etcFile);
+            return this;
+        }
+
+        public Builder etcFiles(final Collection<Path> etcFiles) {
+            if (etcFiles != null)
+                etcFiles.forEach(this::etcFile);
+            return this;
+        }
+
+        public Builder instancesSupplier(final InstancesSupplier instancesSupplier) {
+            this.instancesSupplier = instancesSupplier;
+            return this;
+        }
+
+        /**
+         * Read the etc files and load the libraries concurrently at startup.
+         * A library is always loaded after the libraries it depends on,
+         * the libraries which don't depend on each other are loaded on a fork-join pool.
+         *
+         * @param loadParallelism the maximum number of files loaded concurrently, 1 (the default) loads them sequentially
+         * @return the current builder
+         */
+        public Builder loadParallelism(final int loadParallelism) {
+            this.loadParallelism = loadParallelism;
+            return this;
+        }
+
+        /**
+         * Watch the etc files and reload them when they change.
+         *
+         * @param debounce the reload occurs when no change has been detected during this delay
+         * @return the current builder
+         */
+        public Builder watchEtcFiles(final Duration debounce) {
+            this.watchDebounce = debounce;
+            return this;
+        }
+
+        /**
+         * A library replaced or removed by a reload is closed when its last lease is released,
+         * or when this timeout is expired.
+         * When the manager is closed, the tasks of the executors are interrupted after this timeout.
+         *
+         * @param drainTimeout the maximum time given to the lease holders and to the tasks (30 seconds by default)
+         * @return the current builder
+         */
+        public Builder drainTimeout(final Duration drainTimeout) {
+            this.drainTimeout = drainTimeout;
+            return this;
+        }
+
+        /**
+         * A library replaced or removed by a reload is never closed before this period,
+         * even without lease, as it may still be used by a thread which got it from getLibrary or an injected field.
+         * The period is bounded by the drain timeout.
+         *
+         * @param closeGracePeriod the minimum time before closing a replaced library (10 seconds by default)
+         * @return the current builder
+         */
+        public Builder closeGracePeriod(final Duration closeGracePeriod) {
+            this.closeGracePeriod = closeGracePeriod;
+            return this;
+        }
+
+        /**
+         * Register the statistics of each library as an MXBean:
+         * com.qwazr.library:type=Library,manager={jmxName},name={libraryName}
+         *
+         * @param jmxName the name identifying this manager in JMX
+         * @return the current builder
+         */
+        public Builder jmxName(final String jmxName) {
+            this.jmxName = jmxName;
+            return this;
+        }
+
+        /**
+         * @param timeout a health check which does not finish within this timeout is reported as down (5s by default)
+         * @param ttl     the health report is cached during this time (2s by default)
+         * @return the current builder
+         */
+        public Builder healthCheck(final Duration timeout, final Duration ttl) {
+            this.healthCheckTimeout = timeout;
+            this.healthCheckTtl = ttl;
+            return this;
+        }
+
+        /**
+         * @param parallelism the maximum number of health checks running concurrently (16 by default)
+         * @return the current builder
+         */
+        public Builder healthCheckParallelism(final int parallelism) {
+            this.healthCheckParallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param virtualThreads false to run the tasks of the executors on platform threads
+         *                       even if the JVM provides virtual threads (true by default)
+         * @return the current builder
+         * @see LibraryManager#getExecutor(String, int)
+         */
+        public Builder virtualThreads(final boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * @param executorThreads the number of platform threads shared by the executors,
+         *                        when virtual threads are not used (twice the number of processors by default)
+         * @return the current builder
+         */
+        public Builder executorThreads(final int executorThreads) {
+            this.executorThreads = executorThreads;
+            return this;
+        }
+
+        /**
+         * Keep a binary copy of the parsed etc files in the data directory.
+         * An unchanged etc file is then read from its copy instead of being parsed again at startup.
+         *
+         * @param configurationCache true to enable the cache (disabled by default)
+         * @return the current builder
+         */
+        public Builder configurationCache(final boolean configurationCache) {
+            this.configurationCache = configurationCache;
+            return this;
+        }
+
+        /**
+         * Remember the accounts verified by the realms with a password,
+         * so that the following requests with the same credentials are not verified again by the realm library.
+         * The cached accounts are dropped when the realm library is reloaded.
+         *
+         * @param ttl         the time a verified account is remembered, null to disable the cache (the default)
+         * @param maximumSize the maximum number of remembered accounts per realm
+         * @return the current builder
+         */
+        public Builder credentialCache(final Duration ttl, final long maximumSize) {
+            this.credentialCacheTtl = ttl;
+            this.credentialCacheSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * The passwords of the libraries extending {@link AbstractPasswordLibrary} can be encrypted:
+         * "ENC(...)" with "password_encrypted": true.
+         * By default, they are decrypted with the AES key found in the environment variable
+         * {@link AesSecretDecryptor#DEFAULT_KEY_VARIABLE}.
+         *
+         * @param secretDecryptor the decryptor, for instance {@link AesSecretDecryptor#fromKeyStore}
+         * @return the current builder
+         */
+        public Builder secretDecryptor(final SecretDecryptor secretDecryptor) {
+            this.secretDecryptor = secretDecryptor;
+            return this;
+        }
+
+        /**
+         * Each library is loaded ({@link LibraryInterface#loadAsync()}) on a lifecycle thread,
+         * which is interrupted if the load takes more than this timeout, and the load fails.
+         * A library can override it with its own timeout ({@link LibraryInterface#getLoadTimeout()}).
+         *
+         * @param loadTimeout the load timeout, null (the default) to load the libraries in the calling thread
+         * @return the current builder
+         */
+        public Builder loadTimeout(final Duration loadTimeout) {
+            this.loadTimeout = loadTimeout;
+            return this;
+        }
+
+        /**
+         * The libraries are closed concurrently. When the manager is closed,
+         * the libraries still closing after this timeout are interrupted and abandoned.
+         *
+         * @param closeTimeout the maximum time given to close the libraries (30 seconds by default)
+         * @return the current builder
+         */
+        public Builder closeTimeout(final Duration closeTimeout) {
+            this.closeTimeout = closeTimeout;
+            return this;
+        }
+
+        public LibraryManager build() {
+            return new LibraryManager(this);
+        }
     }
 
 }
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.qwazr.utils.LoggerUtils;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The usage statistics of the libraries, collected with striped counters.
+ * When a JMX name is given, the statistics of each library are also registered as MXBeans:
+ * com.qwazr.library:type=Library,manager={jmxName},name={libraryName}
+ */
+public final class LibraryMetrics {
+
+    private static final Logger LOGGER = LoggerUtils.getLogger(LibraryMetrics.class);
+
+    private static final String JMX_DOMAIN = "com.qwazr.library";
+
+    private final ConcurrentHashMap<String, LibraryStats> statsMap;
+    private final String jmxName;
+    final LongAdder fileLoads;
+    final LongAdder fileUnloads;
+    final LongAdder fileFailures;
+
+    LibraryMetrics(final String jmxName) {
+        this.statsMap = new ConcurrentHashMap<>();
+        this.jmxName = jmxName;
+        this.fileLoads = new LongAdder();
+        this.fileUnloads = new LongAdder();
+        this.fileFailures = new LongAdder();
+    }
+
+    /**
+     * A reloaded library keeps the statistics of the published name.
+     * The statistics of a new name are only registered when the library is published.
+     *
+     * @param name the name of the library
+     * @return the statistics of the published library with this name, or new statistics
+     */
+    LibraryStats getStats(final String name) {
+        final LibraryStats stats = statsMap.get(name);
+        return stats != null ? stats : new LibraryStats(name);
+    }
+
+    /**
+     * Called when a library is published: its statistics replace the statistics registered with this name, if any.
+     *
+     * @param stats the statistics of the published library
+     */
+    void publish(final LibraryStats stats) {
+        final LibraryStats previous = statsMap.put(stats.name, stats);
+        if (previous == stats)
+            return;
+        if (previous != null)
+            unregisterMBean(ManagementFactory.getPlatformMBeanServer(), stats.name);
+        registerMBean(stats);
+    }
+
+    /**
+     * Called when a name is no more published: its statistics are removed, and its MBean unregistered.
+     *
+     * @param stats the statistics of the removed library
+     */
+    void remove(final LibraryStats stats) {
+        if (statsMap.remove(stats.name, stats))
+            unregisterMBean(ManagementFactory.getPlatformMBeanServer(), stats.name);
+    }
+
+    private void registerMBean(final LibraryStats stats) {
+        if (jmxName == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(stats, getObjectName(stats.name));
+        }
+        catch (JMException e) {
+            LOGGER.log(Level.WARNING, e, () -> "Cannot register the MBean of the library " + stats.name);
+        }
+    }
+
+    private void unregisterMBean(final MBeanServer mBeanServer, final String name) {
+        if (jmxName == null)
+            return;
+        try {
+            final ObjectName objectName = getObjectName(name);
+            if (mBeanServer.isRegistered(objectName))
+                mBeanServer.unregisterMBean(objectName);
+        }
+        catch (JMException e) {
+            LOGGER.log(Level.WARNING, e, () -> "Cannot unregister the MBean of the library " + name);
+        }
+    }
+
+    private ObjectName getObjectName(final String name) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=Library,manager=" + ObjectName.quote(jmxName) + ",name=" +
+                ObjectName.quote(name));
+    }
+
+    /**
+     * Unregister the MBeans
+     */
+    void close() {
+        if (jmxName == null)
+            return;
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        statsMap.keySet().forEach(name -> unregisterMBean(mBeanServer, name));
+    }
+
+    Report getReport(final int pendingCloseCount, final Map<String, ExecutorReport> executors,
+                     final Map<String, AbstractPooledLibrary.PoolStats> pools) {
+        final Map<String, LibraryReport> libraries = new TreeMap<>();
+        statsMap.forEach((name, stats) -> libraries.put(name, new LibraryReport(stats)));
+        return new Report(fileLoads.sum(), fileUnloads.sum(), fileFailures.sum(), pendingCloseCount, libraries,
+                executors, pools);
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.PUBLIC_ONLY,
+            getterVisibility = JsonAutoDetect.Visibility.NONE,
+            isGetterVisibility = JsonAutoDetect.Visibility.NONE)
+    public static class Report {
+
+        @JsonProperty("file_loads")
+        final public long fileLoads;
+
+        @JsonProperty("file_unloads")
+        final public long fileUnloads;
+
+        @JsonProperty("file_failures")
+        final public long fileFailures;
+
+        @JsonProperty("pending_close")
+        final public int pendingClose;
+
+        @JsonProperty("libraries")
+        final public Map<String, LibraryReport> libraries;
+
+        @JsonProperty("executors")
+        final public Map<String, ExecutorReport> executors;
+
+        @JsonProperty("pools")
+        final public Map<String, AbstractPooledLibrary.PoolStats> pools;
+
+        @JsonCreator
+        Report(@JsonProperty("file_loads") final long fileLoads,
+               @JsonProperty("file_unloads") final long fileUnloads,
+               @JsonProperty("file_failures") final long fileFailures,
+               @JsonProperty("pending_close") final int pendingClose,
+               @JsonProperty("libraries") final Map<String, LibraryReport> libraries,
+               @JsonProperty("executors") final Map<String, ExecutorReport> executors,
+               @JsonProperty("pools") final Map<String, AbstractPooledLibrary.PoolStats> pools) {
+            this.fileLoads = fileLoads;
+            this.fileUnloads = fileUnloads;
+            this.fileFailures = fileFailures;
+            this.pendingClose = pendingClose;
+            this.libraries = libraries;
+            this.executors = executors;
+            this.pools = pools;
+        }
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.PUBLIC_ONLY,
+            getterVisibility = JsonAutoDetect.Visibility.NONE,
+            isGetterVisibility = JsonAutoDetect.Visibility.NONE)
+    public static class LibraryReport {
+
+        @JsonProperty("lookups")
+        final public long lookups;
+
+        @JsonProperty("injections")
+        final public long injections;
+
+        @JsonProperty("load_failures")
+        final public long loadFailures;
+
+        @JsonProperty("reloads")
+        final public long reloads;
+
+        @JsonProperty("load_time")
+        final public HistogramReport loadTime;
+
+        @JsonProperty("close_time")
+        final public HistogramReport closeTime;
+
+        @JsonCreator
+        LibraryReport(@JsonProperty("lookups") final long lookups,
+                      @JsonProperty("injections") final long injections,
+                      @JsonProperty("load_failures") final long loadFailures,
+                      @JsonProperty("reloads") final long reloads,
+                      @JsonProperty("load_time") final HistogramReport loadTime,
+                      @JsonProperty("close_time") final HistogramReport closeTime) {
+            this.lookups = lookups;
+            this.injections = injections;
+            this.loadFailures = loadFailures;
+            this.reloads = reloads;
+            this.loadTime = loadTime;
+            this.closeTime = closeTime;
+        }
+
+        private LibraryReport(final LibraryStats stats) {
+            this(stats.lookups.sum(), stats.injections.sum(), stats.loadFailures.sum(), stats.reloads.sum(),
+                    HistogramReport.of(stats.loadTime), HistogramReport.of(stats.closeTime));
+        }
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.PUBLIC_ONLY,
+            getterVisibility = JsonAutoDetect.Visibility.NONE,
+            isGetterVisibility = JsonAutoDetect.Visibility.NONE)
+    public static class ExecutorReport {
+
+        @JsonProperty("max_concurrency")
+        final public int maxConcurrency;
+
+        @JsonProperty("active")
+        final public int active;
+
+        @JsonProperty("queued")
+        final public int queued;
+
+        @JsonProperty("completed")
+        final public long completed;
+
+        @JsonProperty("rejected")
+        final public long rejected;
+
+        @JsonProperty("queue_wait")
+        final public HistogramReport queueWait;
+
+        @JsonCreator
+        ExecutorReport(@JsonProperty("max_concurrency") final int maxConcurrency,
+                       @JsonProperty("active") final int active,
+                       @JsonProperty("queued") final int queued,
+                       @JsonProperty("completed") final long completed,
+                       @JsonProperty("rejected") final long rejected,
+                       @JsonProperty("queue_wait") final HistogramReport queueWait) {
+            this.maxConcurrency = maxConcurrency;
+            this.active = active;
+            this.queued = queued;
+            this.completed = completed;
+            this.rejected = rejected;
+            this.queueWait = queueWait;
+        }
+
+        static ExecutorReport of(final LibrarySharedExecutor executor) {
+            return new ExecutorReport(executor.getMaxConcurrency(), executor.getActiveCount(),
+                    executor.getQueueSize(), executor.completed.sum(), executor.rejected.sum(),
+                    HistogramReport.of(executor.queueWait));
+        }
+    }
+
+    /**
+     * A summary of a latency histogram, in milliseconds
+     */
+    @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.PUBLIC_ONLY,
+            getterVisibility = JsonAutoDetect.Visibility.NONE,
+            isGetterVisibility = JsonAutoDetect.Visibility.NONE)
+    public static class HistogramReport {
+
+        @JsonProperty("count")
+        final public long count;
+
+        @JsonProperty("mean_ms")
+        final public double mean;
+
+        @JsonProperty("p50_ms")
+        final public double p50;
+
+        @JsonProperty("p90_ms")
+        final public double p90;
+
+        @JsonProperty("p99_ms")
+        final public double p99;
+
+        @JsonProperty("max_ms")
+        final public double max;
+
+        @JsonCreator
+        HistogramReport(@JsonProperty("count") final long count,
+                        @JsonProperty("mean_ms") final double mean,
+                        @JsonProperty("p50_ms") final double p50,
+                        @JsonProperty("p90_ms") final double p90,
+                        @JsonProperty("p99_ms") final double p99,
+                        @JsonProperty("max_ms") final double max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        static HistogramReport of(final LatencyHistogram histogram) {
+            if (histogram.getCount() == 0)
+                return null;
+            return new HistogramReport(histogram.getCount(), LatencyHistogram.toMillis(histogram.getMean()),
+                    LatencyHistogram.toMillis(histogram.getPercentile(50)),
+                    LatencyHistogram.toMillis(histogram.getPercentile(90)),
+                    LatencyHistogram.toMillis(histogram.getPercentile(99)),
+                    LatencyHistogram.toMillis(histogram.getMax()));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import io.undertow.security.idm.IdentityManager;
+
+import javax.ws.rs.InternalServerErrorException;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the resolution of the realms. A resolved realm is checked again only when the library map changes,
+ * and is kept if its library has not been replaced.
+ * When the credential cache is enabled, each realm is wrapped in a {@link CachedIdentityManager},
+ * which is dropped with its cached credentials when the realm library is reloaded.
+ */
+final class LibraryRealms {
+
+    private final LibraryManager libraryManager;
+    private final Duration credentialTtl;
+    private final long credentialMaxSize;
+    private final ConcurrentHashMap<String, Realm> realms;
+
+    LibraryRealms(final LibraryManager libraryManager, final Duration credentialTtl, final long credentialMaxSize) {
+        this.libraryManager = libraryManager;
+        this.credentialTtl = credentialTtl;
+        this.credentialMaxSize = credentialMaxSize;
+        this.realms = new ConcurrentHashMap<>();
+    }
+
+    IdentityManager get(final String name) {
+        final LibrarySnapshot snapshot = libraryManager.getSnapshot();
+        final Realm current = realms.get(name);
+        if (current != null && current.version == snapshot.version) {
+            current.entry.stats.lookups.increment();
+            return current.identityManager;
+        }
+        final LibraryEntry entry = snapshot.entries.get(name);
+        if (entry == null) {
+            if (current != null)
+                realms.remove(name, current);
+            return null;
+        }
+        final IdentityManager identityManager;
+        if (current != null && current.entry == entry)
+            identityManager = current.identityManager;
+        else {
+            final LibraryInterface library = entry.get();
+            if (!(library instanceof IdentityManager))
+                throw new InternalServerErrorException("This is a not a realm connector: " + name);
+            identityManager = credentialTtl == null ?
+                    (IdentityManager) library :
+                    new CachedIdentityManager((IdentityManager) library, credentialTtl, credentialMaxSize);
+        }
+        realms.put(name, new Realm(snapshot.version, entry, identityManager));
+        entry.stats.lookups.increment();
+        return identityManager;
+    }
+
+    private static final class Realm {
+
+        private final long version;
+        private final LibraryEntry entry;
+        private final IdentityManager identityManager;
+
+        private Realm(final long version, final LibraryEntry entry, final IdentityManager identityManager) {
+            this.version = version;
+            this.entry = entry;
+            this.identityManager = identityManager;
+        }
+    }
+}
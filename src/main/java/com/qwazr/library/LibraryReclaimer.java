@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.qwazr.utils.LoggerUtils;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Close the libraries replaced or removed by a reload once the grace period is expired and their leases are released,
+ * or when the drain timeout is expired.
+ * The grace period covers the threads which got a library without a lease, from getLibrary or an injected field.
+ * The libraries are closed concurrently by the {@link LibraryLifecycle}, without blocking the caller,
+ * except when the manager is closed.
+ */
+final class LibraryReclaimer implements Closeable {
+
+    private static final Logger LOGGER = LoggerUtils.getLogger(LibraryReclaimer.class);
+
+    private static final long CHECK_PERIOD_MS = 100;
+
+    private final long drainTimeoutNanos;
+    private final long gracePeriodNanos;
+    private final LibraryLifecycle lifecycle;
+    private final ConcurrentLinkedQueue<Retired> pending;
+    private final AtomicInteger pendingCount;
+    private ScheduledExecutorService scheduler;
+    private volatile boolean closed;
+
+    LibraryReclaimer(final Duration drainTimeout, final Duration gracePeriod, final LibraryLifecycle lifecycle) {
+        this.drainTimeoutNanos = drainTimeout.toNanos();
+        this.gracePeriodNanos = Math.min(gracePeriod.toNanos(), drainTimeoutNanos);
+        this.lifecycle = lifecycle;
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.pendingCount = new AtomicInteger();
+    }
+
+    /**
+     * Retire the entries. Without grace period, the closing of the entries without any active lease starts immediately.
+     *
+     * @param entries the libraries which are no more published
+     */
+    void retire(final Collection<LibraryEntry> entries) {
+        final long now = System.nanoTime();
+        final long graceDeadline = now + gracePeriodNanos;
+        final long drainDeadline = now + drainTimeoutNanos;
+        final List<LibraryEntry> drained = new ArrayList<>();
+        for (final LibraryEntry entry : entries) {
+            entry.retire();
+            if (closed || (gracePeriodNanos <= 0 && entry.getActiveLeases() <= 0))
+                drained.add(entry);
+            else {
+                pending.add(new Retired(entry, graceDeadline, drainDeadline));
+                pendingCount.incrementAndGet();
+            }
+        }
+        if (closed)
+            lifecycle.closeAll(drained);
+        else
+            lifecycle.closeAllAsync(drained);
+        if (pendingCount.get() > 0)
+            startScheduler();
+    }
+
+    /**
+     * @return the number of library instances waiting for the grace period or for their leases to be released
+     */
+    int getPendingCloseCount() {
+        return pendingCount.get();
+    }
+
+    private synchronized void startScheduler() {
+        if (scheduler != null || closed)
+            return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "library-reclaimer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::check, CHECK_PERIOD_MS, CHECK_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void check() {
+        final long now = System.nanoTime();
+        final List<LibraryEntry> drained = new ArrayList<>();
+        final Iterator<Retired> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            final Retired retired = iterator.next();
+            final long activeLeases = retired.entry.getActiveLeases();
+            if (now - retired.drainDeadline < 0 && (activeLeases > 0 || now - retired.graceDeadline < 0))
+                continue;
+            iterator.remove();
+            pendingCount.decrementAndGet();
+            if (activeLeases > 0)
+                LOGGER.warning(() -> "Drain timeout expired, closing the library " + retired.entry.name + " with " +
+                        activeLeases + " active lease(s)");
+            drained.add(retired.entry);
+        }
+        lifecycle.closeAll(drained);
+    }
+
+    /**
+     * Close immediately the library instances still waiting for their leases
+     */
+    @Override
+    public void close() {
+        closeAll(Collections.emptyList());
+    }
+
+    /**
+     * Close the given entries and the entries still waiting for their leases, concurrently.
+     * Returns when they are closed, or when the close timeout is expired.
+     *
+     * @param entries the last published libraries
+     */
+    void closeAll(final Collection<LibraryEntry> entries) {
+        synchronized (this) {
+            closed = true;
+            if (scheduler != null)
+                scheduler.shutdownNow();
+        }
+        final List<LibraryEntry> drained = new ArrayList<>();
+        for (final LibraryEntry entry : entries) {
+            entry.retire();
+            drained.add(entry);
+        }
+        Retired retired;
+        while ((retired = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            drained.add(retired.entry);
+        }
+        lifecycle.closeAll(drained);
+    }
+
+    private static final class Retired {
+
+        private final LibraryEntry entry;
+        private final long graceDeadline;
+        private final long drainDeadline;
+
+        private Retired(final LibraryEntry entry, final long graceDeadline, final long drainDeadline) {
+            this.entry = entry;
+            this.graceDeadline = graceDeadline;
+            this.drainDeadline = drainDeadline;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A decrypted secret, kept in a direct buffer out of the Java heap, which is cleared when the secret is released.
+ */
+final class LibrarySecret {
+
+    private final ByteBuffer buffer;
+
+    LibrarySecret(final ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return a copy of the secret decoded as UTF-8, which should be cleared by the caller
+     */
+    char[] toChars() {
+        final CharBuffer chars;
+        try {
+            chars = StandardCharsets.UTF_8.newDecoder().decode(buffer.duplicate());
+        }
+        catch (CharacterCodingException e) {
+            throw new IllegalStateException("The secret is not a valid UTF-8 text", e);
+        }
+        final char[] result = Arrays.copyOf(chars.array(), chars.remaining());
+        Arrays.fill(chars.array(), '\0');
+        return result;
+    }
+
+    static void clear(final ByteBuffer buffer) {
+        for (int i = 0; i < buffer.capacity(); i++)
+            buffer.put(i, (byte) 0);
+    }
+}
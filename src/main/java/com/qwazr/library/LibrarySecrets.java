@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import java.io.Closeable;
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decrypt the secrets once and share the decrypted values between the libraries.
+ * A secret stays in the cache while a library references it.
+ * When no library references it anymore, its buffer is cleared and it is removed from the cache.
+ */
+final class LibrarySecrets implements Closeable {
+
+    static final String PREFIX = "ENC(";
+    static final String SUFFIX = ")";
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final SecretDecryptor configuredDecryptor;
+    private volatile SecretDecryptor decryptor;
+    private final Map<String, Holder> secrets;
+
+    LibrarySecrets(final SecretDecryptor decryptor) {
+        this.configuredDecryptor = decryptor;
+        this.secrets = new ConcurrentHashMap<>();
+    }
+
+    static boolean isEncrypted(final String value) {
+        return value != null && value.startsWith(PREFIX) && value.endsWith(SUFFIX);
+    }
+
+    /**
+     * @param value an encrypted value: "ENC(...)"
+     * @return the decrypted secret, shared with the libraries using the same value
+     */
+    LibrarySecret get(final String value) {
+        for (; ; ) {
+            final Holder holder = secrets.computeIfAbsent(value, Holder::new);
+            final LibrarySecret secret = holder.get();
+            if (secret != null)
+                return secret;
+            // The secret has just been released: decrypt it again
+            secrets.remove(value, holder);
+        }
+    }
+
+    private SecretDecryptor getDecryptor() {
+        if (decryptor != null)
+            return decryptor;
+        synchronized (this) {
+            if (decryptor == null) {
+                decryptor = configuredDecryptor != null ?
+                        configuredDecryptor :
+                        AesSecretDecryptor.fromEnvironment(AesSecretDecryptor.DEFAULT_KEY_VARIABLE);
+                if (decryptor == null)
+                    throw new IllegalStateException("No secret decryptor: the environment variable " +
+                            AesSecretDecryptor.DEFAULT_KEY_VARIABLE + " is not set");
+            }
+            return decryptor;
+        }
+    }
+
+    int size() {
+        return secrets.size();
+    }
+
+    /**
+     * Clear every decrypted secret
+     */
+    @Override
+    public void close() {
+        secrets.values().forEach(Holder::clear);
+        secrets.clear();
+    }
+
+    private final class Holder {
+
+        private final String value;
+        private WeakReference<LibrarySecret> reference;
+        private ByteBuffer buffer;
+
+        private Holder(final String value) {
+            this.value = value;
+        }
+
+        private synchronized LibrarySecret get() {
+            if (reference != null)
+                return reference.get();
+            final byte[] bytes;
+            try {
+                bytes = getDecryptor().decrypt(value.substring(PREFIX.length(), value.length() - SUFFIX.length()));
+            }
+            catch (GeneralSecurityException e) {
+                secrets.remove(value, this);
+                throw new IllegalStateException("Cannot decrypt the secret", e);
+            }
+            buffer = ByteBuffer.allocateDirect(bytes.length);
+            buffer.put(bytes).flip();
+            Arrays.fill(bytes, (byte) 0);
+            final LibrarySecret secret = new LibrarySecret(buffer.asReadOnlyBuffer());
+            reference = new WeakReference<>(secret);
+            CLEANER.register(secret, this::clear);
+            return secret;
+        }
+
+        private synchronized void clear() {
+            if (buffer != null) {
+                LibrarySecret.clear(buffer);
+                buffer = null;
+            }
+            secrets.remove(value, this);
+        }
+    }
+}
@@ -17,6 +17,8 @@ package com.qwazr.library;
 
 import com.qwazr.server.AbstractServiceImpl;
 
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import java.util.Map;
 
 public class LibraryServiceImpl extends AbstractServiceImpl implements LibraryServiceInterface {
@@ -37,6 +39,25 @@ public class LibraryServiceImpl extends AbstractServiceImpl implements LibrarySe
 		return libraryManager.getLibrary(libraryName);
 	}
 
+	@Override
+	public StreamingOutput listLibraries(final String cursor, final Integer limit, final String prefix,
+			final String klass) {
+		return new LibraryListWriter(libraryManager.getSnapshot(), cursor, limit, prefix, klass);
+	}
+
+	@Override
+	public LibraryMetrics.Report getMetrics() {
+		return libraryManager.getMetrics();
+	}
+
+	@Override
+	public Response getHealth() {
+		final LibraryHealth.Report report = libraryManager.getHealth();
+		return Response.status(report.status == LibraryHealth.Status.UP ?
+				Response.Status.OK :
+				Response.Status.SERVICE_UNAVAILABLE).entity(report).build();
+	}
+
 	@Override
 	public void inject(Object object) {
 		libraryManager.inject(object);
@@ -22,6 +22,9 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import java.util.Map;
 
 @Path("/" + LibraryServiceInterface.SERVICE_NAME)
@@ -40,5 +43,38 @@ public interface LibraryServiceInterface extends ServiceInterface {
 	@Produces(ServiceInterface.APPLICATION_JSON_UTF8)
 	LibraryInterface getLibrary(@PathParam("library_name") String library_name);
 
+	/**
+	 * Stream a page of the library list, sorted by name
+	 *
+	 * @param cursor the libraries are listed after this name (the "next" value of the previous page)
+	 * @param limit  the maximum number of libraries returned, all if not set
+	 * @param prefix only the libraries whose name starts with this prefix are returned
+	 * @param klass  only the libraries with this class name are returned
+	 * @return the JSON writer
+	 */
+	@GET
+	@Path("/_list")
+	@Produces(ServiceInterface.APPLICATION_JSON_UTF8)
+	StreamingOutput listLibraries(@QueryParam("cursor") String cursor, @QueryParam("limit") Integer limit,
+			@QueryParam("prefix") String prefix, @QueryParam("class") String klass);
+
+	/**
+	 * @return the usage statistics of the libraries: lookups, injections, load and close times
+	 */
+	@GET
+	@Path("/_metrics")
+	@Produces(ServiceInterface.APPLICATION_JSON_UTF8)
+	LibraryMetrics.Report getMetrics();
+
+	/**
+	 * Check the libraries implementing {@link LibraryHealthCheck}
+	 *
+	 * @return the health report, with the status 200 if every library is up, 503 otherwise
+	 */
+	@GET
+	@Path("/_health")
+	@Produces(ServiceInterface.APPLICATION_JSON_UTF8)
+	Response getHealth();
+
 	void inject(final Object object);
 }
\ No newline at end of file
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The named queue behind the {@link LibraryExecutor} handles with the same name.
+ * The tasks run on the threads shared by every library of the manager,
+ * and at most maxConcurrency tasks run at the same time. The other tasks wait in a queue.
+ * It is shut down by the {@link LibraryManager} only.
+ */
+final class LibrarySharedExecutor {
+
+    private final String name;
+    private final int maxConcurrency;
+    private final Executor threads;
+    private final Queue<Task> queue;
+    private final AtomicInteger queueSize;
+    private final AtomicInteger active;
+    private final AtomicInteger submitting;
+    final LongAdder completed;
+    final LongAdder rejected;
+    final LatencyHistogram queueWait;
+    private volatile boolean shutdown;
+
+    LibrarySharedExecutor(final String name, final int maxConcurrency, final Executor threads) {
+        if (maxConcurrency < 1)
+            throw new IllegalArgumentException("The maximum concurrency must be positive: " + maxConcurrency);
+        this.name = name;
+        this.maxConcurrency = maxConcurrency;
+        this.threads = threads;
+        this.queue = new ConcurrentLinkedQueue<>();
+        this.queueSize = new AtomicInteger();
+        this.active = new AtomicInteger();
+        this.submitting = new AtomicInteger();
+        this.completed = new LongAdder();
+        this.rejected = new LongAdder();
+        this.queueWait = new LatencyHistogram();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    int getActiveCount() {
+        return active.get();
+    }
+
+    int getQueueSize() {
+        return queueSize.get();
+    }
+
+    /**
+     * The task is counted as submitting before the shutdown flag is read:
+     * the executor is not terminated until an accepted task is queued.
+     *
+     * @param command  the task
+     * @param onReject called if the task is accepted, but the threads reject it later
+     */
+    void execute(final Runnable command, final Runnable onReject) {
+        submitting.incrementAndGet();
+        try {
+            if (shutdown) {
+                rejected.increment();
+                throw new RejectedExecutionException("The executor is shut down: " + name);
+            }
+            queue.offer(new Task(command, onReject));
+            queueSize.incrementAndGet();
+        }
+        finally {
+            submitting.decrementAndGet();
+        }
+        dispatch();
+    }
+
+    /**
+     * Take a slot and start a queued task, as long as a slot is free and a task is waiting.
+     * The queue is checked again after a slot is released, so a task offered concurrently is never left behind.
+     */
+    private void dispatch() {
+        for (; ; ) {
+            final int current = active.get();
+            if (current >= maxConcurrency || queue.isEmpty())
+                return;
+            if (!active.compareAndSet(current, current + 1))
+                continue;
+            final Task task = queue.poll();
+            if (task == null) {
+                active.decrementAndGet();
+                continue;
+            }
+            queueSize.decrementAndGet();
+            try {
+                threads.execute(task);
+            }
+            catch (RejectedExecutionException e) {
+                active.decrementAndGet();
+                rejected.increment();
+                task.onReject.run();
+                signalTermination();
+            }
+        }
+    }
+
+    private void signalTermination() {
+        if (shutdown && isTerminated()) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Reject the new tasks, the queued tasks are still executed
+     */
+    void terminate() {
+        shutdown = true;
+        signalTermination();
+    }
+
+    boolean isShutdown() {
+        return shutdown;
+    }
+
+    boolean isTerminated() {
+        return shutdown && submitting.get() == 0 && active.get() == 0 && queue.isEmpty();
+    }
+
+    boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            for (; ; ) {
+                if (isTerminated())
+                    return true;
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    return false;
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+    }
+
+    private final class Task implements Runnable {
+
+        private final Runnable command;
+        private final Runnable onReject;
+        private final long queuedAt;
+
+        private Task(final Runnable command, final Runnable onReject) {
+            this.command = command;
+            this.onReject = onReject;
+            this.queuedAt = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            queueWait.record(System.nanoTime() - queuedAt);
+            try {
+                command.run();
+            }
+            finally {
+                completed.increment();
+                active.decrementAndGet();
+                dispatch();
+                signalTermination();
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable view of the published libraries.
+ * The readers get the libraries, the version and the library list from a single volatile read.
+ */
+final class LibrarySnapshot {
+
+    static final LibrarySnapshot EMPTY = new LibrarySnapshot(0, LibraryTrie.EMPTY);
+
+    final long version;
+    final LibraryTrie entries;
+    final Map<String, String> libraries;
+    private volatile String[] sortedNames;
+
+    private LibrarySnapshot(final long version, final LibraryTrie entries) {
+        this.version = version;
+        this.entries = entries;
+        this.libraries = new ClassNames();
+    }
+
+    /**
+     * @return the library names in natural order, computed on first call
+     */
+    String[] getSortedNames() {
+        String[] names = sortedNames;
+        if (names == null) {
+            names = entries.keySet().toArray(new String[0]);
+            Arrays.sort(names);
+            sortedNames = names;
+        }
+        return names;
+    }
+
+    /**
+     * @param entries the new libraries
+     * @return a new snapshot with the next version number
+     */
+    LibrarySnapshot next(final LibraryTrie entries) {
+        return new LibrarySnapshot(version + 1, entries);
+    }
+
+    /**
+     * A read-only view of the class name of each library, which does not copy the entries.
+     * The libraries are iterated in name order.
+     */
+    private final class ClassNames extends AbstractMap<String, String> {
+
+        @Override
+        public String get(final Object name) {
+            final LibraryEntry entry = entries.get(name);
+            return entry == null ? null : entry.library.getClass().getName();
+        }
+
+        @Override
+        public boolean containsKey(final Object name) {
+            return entries.containsKey(name);
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<>() {
+
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    final String[] names = getSortedNames();
+                    return new Iterator<>() {
+
+                        private int index;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < names.length;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (index >= names.length)
+                                throw new NoSuchElementException();
+                            final String name = names[index++];
+                            return new SimpleImmutableEntry<>(name, entries.get(name).library.getClass().getName());
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return entries.size();
+                }
+            };
+        }
+    }
+}
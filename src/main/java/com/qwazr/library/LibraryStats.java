@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The statistics of one library name. They are kept across the reloads of the library.
+ */
+final class LibraryStats implements LibraryStatsMXBean {
+
+    final String name;
+    final LongAdder lookups = new LongAdder();
+    final LongAdder injections = new LongAdder();
+    final LongAdder loadFailures = new LongAdder();
+    final LongAdder reloads = new LongAdder();
+    final LatencyHistogram loadTime = new LatencyHistogram();
+    final LatencyHistogram closeTime = new LatencyHistogram();
+
+    LibraryStats(final String name) {
+        this.name = name;
+    }
+
+    @Override
+    public long getLookupCount() {
+        return lookups.sum();
+    }
+
+    @Override
+    public long getInjectionCount() {
+        return injections.sum();
+    }
+
+    @Override
+    public long getLoadCount() {
+        return loadTime.getCount();
+    }
+
+    @Override
+    public long getLoadFailureCount() {
+        return loadFailures.sum();
+    }
+
+    @Override
+    public long getReloadCount() {
+        return reloads.sum();
+    }
+
+    @Override
+    public long getCloseCount() {
+        return closeTime.getCount();
+    }
+
+    @Override
+    public double getLoadTimeMeanMs() {
+        return LatencyHistogram.toMillis(loadTime.getMean());
+    }
+
+    @Override
+    public double getLoadTimeP99Ms() {
+        return LatencyHistogram.toMillis(loadTime.getPercentile(99));
+    }
+
+    @Override
+    public double getCloseTimeMeanMs() {
+        return LatencyHistogram.toMillis(closeTime.getMean());
+    }
+
+    @Override
+    public double getCloseTimeP99Ms() {
+        return LatencyHistogram.toMillis(closeTime.getPercentile(99));
+    }
+}
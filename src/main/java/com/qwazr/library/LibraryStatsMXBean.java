@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+/**
+ * The JMX view of the statistics of one library name.
+ */
+public interface LibraryStatsMXBean {
+
+    long getLookupCount();
+
+    long getInjectionCount();
+
+    long getLoadCount();
+
+    long getLoadFailureCount();
+
+    long getReloadCount();
+
+    long getCloseCount();
+
+    double getLoadTimeMeanMs();
+
+    double getLoadTimeP99Ms();
+
+    double getCloseTimeMeanMs();
+
+    double getCloseTimeP99Ms();
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable hash array mapped trie of the library entries, by name.
+ * Adding or removing a name copies only the nodes on the path to this name (at most 7 levels of 32 slots),
+ * the other nodes are shared with the previous version.
+ */
+final class LibraryTrie extends AbstractMap<String, LibraryEntry> {
+
+    static final LibraryTrie EMPTY = new LibraryTrie(Node.EMPTY, 0);
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private final Node root;
+    private final int size;
+
+    private LibraryTrie(final Node root, final int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    private static int hash(final Object key) {
+        final int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public LibraryEntry get(final Object key) {
+        if (!(key instanceof String))
+            return null;
+        return root.find((String) key, hash(key), 0);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return a new trie with the entry, or this trie if the name is already mapped to this entry
+     */
+    LibraryTrie with(final String name, final LibraryEntry entry) {
+        final boolean[] added = new boolean[1];
+        final Node newRoot = root.put(new Leaf(name, hash(name), entry), 0, added);
+        return newRoot == root ? this : new LibraryTrie(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * @return a new trie without the name, or this trie if the name is not mapped
+     */
+    LibraryTrie without(final String name) {
+        final Node newRoot = root.remove(name, hash(name), 0);
+        if (newRoot == root)
+            return this;
+        return newRoot == null ? EMPTY : new LibraryTrie(newRoot, size - 1);
+    }
+
+    @Override
+    public void forEach(final BiConsumer<? super String, ? super LibraryEntry> action) {
+        root.forEach(action);
+    }
+
+    @Override
+    public Set<Entry<String, LibraryEntry>> entrySet() {
+        return new AbstractSet<>() {
+
+            @Override
+            public Iterator<Entry<String, LibraryEntry>> iterator() {
+                return new LeafIterator(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private static final class Leaf implements Map.Entry<String, LibraryEntry> {
+
+        private final String key;
+        private final int hash;
+        private final LibraryEntry value;
+
+        private Leaf(final String key, final int hash, final LibraryEntry value) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public LibraryEntry getValue() {
+            return value;
+        }
+
+        @Override
+        public LibraryEntry setValue(final LibraryEntry value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * A node indexes its slots with a bitmap. Each slot is a {@link Leaf} or a child {@link Node}.
+     * The leaves whose full hashes are equal are kept in a collision node, without bitmap.
+     */
+    private static final class Node {
+
+        private static final Node EMPTY = new Node(0, new Object[0], false);
+
+        private final int bitmap;
+        private final Object[] slots;
+        private final boolean collision;
+
+        private Node(final int bitmap, final Object[] slots, final boolean collision) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+            this.collision = collision;
+        }
+
+        private LibraryEntry find(final String key, final int hash, final int shift) {
+            if (collision) {
+                for (final Object slot : slots)
+                    if (((Leaf) slot).key.equals(key))
+                        return ((Leaf) slot).value;
+                return null;
+            }
+            final int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return null;
+            final Object slot = slots[Integer.bitCount(bitmap & (bit - 1))];
+            if (slot instanceof Leaf) {
+                final Leaf leaf = (Leaf) slot;
+                return leaf.hash == hash && leaf.key.equals(key) ? leaf.value : null;
+            }
+            return ((Node) slot).find(key, hash, shift + BITS);
+        }
+
+        private Node put(final Leaf leaf, final int shift, final boolean[] added) {
+            if (collision) {
+                for (int i = 0; i < slots.length; i++) {
+                    final Leaf current = (Leaf) slots[i];
+                    if (current.key.equals(leaf.key))
+                        return current.value == leaf.value ? this : new Node(0, replace(slots, i, leaf), true);
+                }
+                added[0] = true;
+                return new Node(0, insert(slots, slots.length, leaf), true);
+            }
+            final int bit = 1 << ((leaf.hash >>> shift) & MASK);
+            final int index = Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                return new Node(bitmap | bit, insert(slots, index, leaf), false);
+            }
+            final Object slot = slots[index];
+            if (slot instanceof Leaf) {
+                final Leaf current = (Leaf) slot;
+                if (current.key.equals(leaf.key))
+                    return current.value == leaf.value ? this : new Node(bitmap, replace(slots, index, leaf), false);
+                added[0] = true;
+                return new Node(bitmap, replace(slots, index, merge(current, leaf, shift + BITS)), false);
+            }
+            final Node child = (Node) slot;
+            final Node newChild = child.put(leaf, shift + BITS, added);
+            return newChild == child ? this : new Node(bitmap, replace(slots, index, newChild), false);
+        }
+
+        private static Node merge(final Leaf first, final Leaf second, final int shift) {
+            if (first.hash == second.hash)
+                return new Node(0, new Object[]{first, second}, true);
+            final int firstBit = 1 << ((first.hash >>> shift) & MASK);
+            final int secondBit = 1 << ((second.hash >>> shift) & MASK);
+            if (firstBit == secondBit)
+                return new Node(firstBit, new Object[]{merge(first, second, shift + BITS)}, false);
+            return new Node(firstBit | secondBit, Integer.compareUnsigned(firstBit, secondBit) < 0 ?
+                    new Object[]{first, second} :
+                    new Object[]{second, first}, false);
+        }
+
+        /**
+         * @return the new node, this node if the key is not found, or null if the node becomes empty
+         */
+        private Node remove(final String key, final int hash, final int shift) {
+            if (collision) {
+                for (int i = 0; i < slots.length; i++)
+                    if (((Leaf) slots[i]).key.equals(key))
+                        return slots.length == 1 ? null : new Node(0, delete(slots, i), true);
+                return this;
+            }
+            final int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return this;
+            final int index = Integer.bitCount(bitmap & (bit - 1));
+            final Object slot = slots[index];
+            final Object newSlot;
+            if (slot instanceof Leaf)
+                newSlot = ((Leaf) slot).key.equals(key) ? null : slot;
+            else
+                newSlot = ((Node) slot).remove(key, hash, shift + BITS);
+            if (newSlot == slot)
+                return this;
+            if (newSlot != null)
+                return new Node(bitmap, replace(slots, index, newSlot), false);
+            if (bitmap == bit)
+                return null;
+            return new Node(bitmap & ~bit, delete(slots, index), false);
+        }
+
+        private void forEach(final BiConsumer<? super String, ? super LibraryEntry> action) {
+            for (final Object slot : slots) {
+                if (slot instanceof Leaf)
+                    action.accept(((Leaf) slot).key, ((Leaf) slot).value);
+                else
+                    ((Node) slot).forEach(action);
+            }
+        }
+
+        private static Object[] replace(final Object[] slots, final int index, final Object slot) {
+            final Object[] copy = slots.clone();
+            copy[index] = slot;
+            return copy;
+        }
+
+        private static Object[] insert(final Object[] slots, final int index, final Object slot) {
+            final Object[] copy = new Object[slots.length + 1];
+            System.arraycopy(slots, 0, copy, 0, index);
+            copy[index] = slot;
+            System.arraycopy(slots, index, copy, index + 1, slots.length - index);
+            return copy;
+        }
+
+        private static Object[] delete(final Object[] slots, final int index) {
+            final Object[] copy = Arrays.copyOf(slots, slots.length - 1);
+            System.arraycopy(slots, index + 1, copy, index, slots.length - index - 1);
+            return copy;
+        }
+    }
+
+    /**
+     * Depth-first iteration over the leaves, with an explicit stack of the nodes being visited
+     */
+    private static final class LeafIterator implements Iterator<Entry<String, LibraryEntry>> {
+
+        private final ArrayDeque<Node> nodes = new ArrayDeque<>();
+        private final ArrayDeque<Integer> positions = new ArrayDeque<>();
+        private Leaf next;
+
+        private LeafIterator(final Node root) {
+            nodes.push(root);
+            positions.push(0);
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (!nodes.isEmpty()) {
+                final Node node = nodes.peek();
+                final int position = positions.pop();
+                if (position == node.slots.length) {
+                    nodes.pop();
+                    continue;
+                }
+                positions.push(position + 1);
+                final Object slot = node.slots[position];
+                if (slot instanceof Leaf) {
+                    next = (Leaf) slot;
+                    return;
+                }
+                nodes.push((Node) slot);
+                positions.push(0);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<String, LibraryEntry> next() {
+            if (next == null)
+                throw new NoSuchElementException();
+            final Leaf current = next;
+            advance();
+            return current;
+        }
+    }
+}
@@ -0,0 +1,542 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.qwazr.utils.LoggerUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent key/value store. The values are kept out of the Java heap in memory-mapped files:
+ * <pre>
+ * "dictionary": {
+ *   "class": "com.qwazr.library.MappedStoreLibrary",
+ *   "path": "stores/dictionary",
+ *   "segment_size_mb": 64,
+ *   "compaction_ratio": 0.5
+ * }
+ * </pre>
+ * The path is relative to the data directory of the {@link LibraryManager}.
+ * <p>
+ * The records are appended to a log made of fixed-size mapped segments, and only the index of the keys is on heap.
+ * A read returns a read-only view of the mapped value, without copy and without lock,
+ * and may run concurrently with the writes, which are serialized.
+ * When the overwritten and deleted records exceed the compaction ratio,
+ * the live records are copied in a new file in the background.
+ * A value returned before a compaction remains readable.
+ * <p>
+ * When the store is reopened, the index is rebuilt by scanning the log,
+ * and the scan stops at the first incomplete record (checked by a CRC32).
+ */
+public class MappedStoreLibrary extends AbstractLibrary implements Closeable {
+
+    private static final Logger LOGGER = LoggerUtils.getLogger(MappedStoreLibrary.class);
+
+    private static final String FILE_PREFIX = "store-";
+    private static final String FILE_SUFFIX = ".dat";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // keyLength, valueLength, crc
+    private static final int HEADER_LENGTH = Integer.BYTES * 3;
+    // Marks the unused end of a segment
+    private static final int PADDING = -1;
+    private static final int TOMBSTONE = -1;
+
+    @JsonProperty("path")
+    protected String path;
+
+    @JsonProperty("segment_size_mb")
+    protected int segmentSizeMb = 64;
+
+    /**
+     * The compaction starts when the part of the log used by overwritten or deleted records exceeds this ratio
+     */
+    @JsonProperty("compaction_ratio")
+    protected double compactionRatio = 0.5;
+
+    private Path directory;
+    private int segmentSize;
+    private volatile Log log;
+    private volatile boolean closed;
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    @Override
+    public void load() {
+        if (path == null)
+            throw new IllegalArgumentException("The path of the store is missing");
+        final Path dataDirectory = libraryManager == null ? null : libraryManager.getDataDirectory();
+        directory = dataDirectory == null ? Paths.get(path) : dataDirectory.resolve(path);
+        segmentSize = Math.multiplyExact(segmentSizeMb, 1024 * 1024);
+        try {
+            Files.createDirectories(directory);
+            log = openLog();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the store: " + directory, e);
+        }
+    }
+
+    /**
+     * Open the file with the greatest generation, and delete the files left by an interrupted compaction.
+     * A compacted file gets its final name only once it is complete, so the greatest generation is always
+     * a complete one, and a temporary file is an unfinished compaction.
+     */
+    private Log openLog() throws IOException {
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                FILE_PREFIX + "*" + FILE_SUFFIX + TEMP_SUFFIX)) {
+            for (final Path file : stream) {
+                LOGGER.warning(() -> "Deleting the file of an interrupted compaction: " + file);
+                Files.delete(file);
+            }
+        }
+        long generation = 0;
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (final Path file : stream)
+                generation = Math.max(generation, parseGeneration(file));
+        }
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (final Path file : stream)
+                if (parseGeneration(file) != generation)
+                    Files.delete(file);
+        }
+        final Log newLog = new Log(generation, getFile(generation), segmentSize);
+        newLog.recover();
+        return newLog;
+    }
+
+    private static long parseGeneration(final Path file) {
+        final String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+    }
+
+    private Path getFile(final long generation) {
+        return directory.resolve(FILE_PREFIX + generation + FILE_SUFFIX);
+    }
+
+    private Log getLog() {
+        if (closed)
+            throw new IllegalStateException("The store is closed");
+        final Log current = log;
+        if (current == null)
+            throw new IllegalStateException("The store is not loaded");
+        return current;
+    }
+
+    /**
+     * @param key the key
+     * @return a read-only view of the mapped value, or null if the key is not found
+     */
+    public ByteBuffer get(final byte[] key) {
+        return getLog().get(new Key(key));
+    }
+
+    public ByteBuffer get(final String key) {
+        return get(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public boolean containsKey(final byte[] key) {
+        return getLog().index.containsKey(new Key(key));
+    }
+
+    /**
+     * @param key   the key, not empty
+     * @param value the value, from its position to its limit, which is not modified
+     */
+    public synchronized void put(final byte[] key, final ByteBuffer value) {
+        if (key.length == 0)
+            throw new IllegalArgumentException("The key is empty");
+        try {
+            getLog().append(new Key(key.clone()), value.duplicate());
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        compactIfNeeded();
+    }
+
+    public void put(final byte[] key, final byte[] value) {
+        put(key, ByteBuffer.wrap(value));
+    }
+
+    public void put(final String key, final byte[] value) {
+        put(key.getBytes(StandardCharsets.UTF_8), ByteBuffer.wrap(value));
+    }
+
+    /**
+     * @param key the key
+     * @return true if the key was found
+     */
+    public synchronized boolean delete(final byte[] key) {
+        final Log current = getLog();
+        final Key k = new Key(key);
+        if (!current.index.containsKey(k))
+            return false;
+        try {
+            current.append(k, null);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        compactIfNeeded();
+        return true;
+    }
+
+    public boolean delete(final String key) {
+        return delete(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the number of keys
+     */
+    @JsonIgnore
+    public int getSize() {
+        return getLog().index.size();
+    }
+
+    /**
+     * @return the size of the log file in bytes
+     */
+    @JsonIgnore
+    public long getFileSize() {
+        return getLog().getFileSize();
+    }
+
+    /**
+     * Write the modified pages to the storage device
+     */
+    public void flush() {
+        getLog().force();
+    }
+
+    private void compactIfNeeded() {
+        final Log current = log;
+        if (current.totalBytes < segmentSize || current.liveBytes >= current.totalBytes * (1 - compactionRatio))
+            return;
+        if (!compacting.compareAndSet(false, true))
+            return;
+        if (libraryManager == null) {
+            runCompaction();
+            return;
+        }
+        try {
+            libraryManager.getExecutor(MappedStoreLibrary.class.getName()).execute(this::runCompaction);
+        }
+        catch (RejectedExecutionException e) {
+            compacting.set(false);
+        }
+    }
+
+    private void runCompaction() {
+        try {
+            compact();
+        }
+        catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, e, () -> "The compaction of the store failed: " + directory);
+        }
+        finally {
+            compacting.set(false);
+        }
+    }
+
+    /**
+     * Copy the live records in a temporary file, which is flushed and atomically renamed to replace the current one.
+     * The writes wait for the end of the compaction, the reads don't.
+     *
+     * @throws IOException if the new file cannot be written
+     */
+    public synchronized void compact() throws IOException {
+        if (closed)
+            return;
+        final Log current = getLog();
+        final Path nextFile = getFile(current.generation + 1);
+        final Log next =
+                new Log(current.generation + 1, nextFile.resolveSibling(nextFile.getFileName() + TEMP_SUFFIX),
+                        segmentSize);
+        try {
+            for (final Map.Entry<Key, Long> entry : current.index.entrySet())
+                next.append(entry.getKey(), current.read(entry.getValue()));
+            next.force();
+            next.moveTo(nextFile);
+            syncDirectory();
+        }
+        catch (IOException | RuntimeException e) {
+            next.close();
+            Files.deleteIfExists(next.file);
+            throw e;
+        }
+        log = next;
+        current.close();
+        Files.deleteIfExists(current.file);
+        LOGGER.fine(() -> "Store compacted: " + directory);
+    }
+
+    /**
+     * Make the rename durable. Some platforms cannot open a directory, the rename is then left to the file system.
+     */
+    private void syncDirectory() {
+        try (final FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.FINE, e, () -> "Cannot sync the store directory: " + directory);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        final Log current = log;
+        if (current != null) {
+            current.force();
+            current.close();
+        }
+    }
+
+    private static final class Key {
+
+        private final byte[] bytes;
+        private final int hash;
+
+        private Key(final byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Key && Arrays.equals(bytes, ((Key) o).bytes);
+        }
+    }
+
+    /**
+     * One generation of the log. The segments array is replaced when a segment is added,
+     * and an offset is published in the index only after its record is written.
+     */
+    private static final class Log implements Closeable {
+
+        private final long generation;
+        private volatile Path file;
+        private final int segmentSize;
+        private final FileChannel channel;
+        private final ConcurrentHashMap<Key, Long> index;
+        private volatile MappedByteBuffer[] segments;
+        private long writePosition;
+        private long liveBytes;
+        private long totalBytes;
+
+        private Log(final long generation, final Path file, final int segmentSize) throws IOException {
+            this.generation = generation;
+            this.file = file;
+            this.segmentSize = segmentSize;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.index = new ConcurrentHashMap<>();
+            final int count = (int) ((channel.size() + segmentSize - 1) / segmentSize);
+            final MappedByteBuffer[] mapped = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++)
+                mapped[i] = map(i);
+            this.segments = mapped;
+        }
+
+        private MappedByteBuffer map(final int segment) throws IOException {
+            return channel.map(FileChannel.MapMode.READ_WRITE, (long) segment * segmentSize, segmentSize);
+        }
+
+        /**
+         * Rebuild the index. The log ends at the first empty or invalid record header.
+         */
+        private void recover() throws IOException {
+            final CRC32 crc = new CRC32();
+            final MappedByteBuffer[] mapped = segments;
+            for (int s = 0; s < mapped.length; s++) {
+                int offset = 0;
+                while (segmentSize - offset >= HEADER_LENGTH) {
+                    final ByteBuffer buffer = mapped[s].duplicate();
+                    buffer.position(offset);
+                    final int keyLength = buffer.getInt();
+                    if (keyLength == PADDING)
+                        break;
+                    final int valueLength = buffer.getInt();
+                    final int expectedCrc = buffer.getInt();
+                    // In long: the lengths of a corrupted header may overflow an int
+                    final long length = (long) keyLength + Math.max(valueLength, 0);
+                    if (keyLength <= 0 || valueLength < TOMBSTONE || length > buffer.remaining()) {
+                        truncate(s, offset, keyLength != 0);
+                        return;
+                    }
+                    buffer.limit(buffer.position() + (int) length);
+                    crc.reset();
+                    crc.update(buffer.duplicate());
+                    if ((int) crc.getValue() != expectedCrc) {
+                        truncate(s, offset, true);
+                        return;
+                    }
+                    final byte[] key = new byte[keyLength];
+                    buffer.get(key);
+                    index(new Key(key), (long) s * segmentSize + offset, valueLength);
+                    offset += HEADER_LENGTH + (int) length;
+                }
+            }
+            writePosition = (long) mapped.length * segmentSize;
+        }
+
+        /**
+         * Drop the segments after the end of the log. If the end of the log is a partially written record,
+         * the end of the segment is cleared, so that no stale record is found after the next writes.
+         */
+        private void truncate(final int segment, final int offset, final boolean corrupted) throws IOException {
+            if (corrupted) {
+                LOGGER.warning(() -> "Incomplete record found in " + file + " at " +
+                        ((long) segment * segmentSize + offset));
+                final ByteBuffer buffer = segments[segment].duplicate();
+                buffer.position(offset);
+                while (buffer.hasRemaining())
+                    buffer.put((byte) 0);
+            }
+            if (segment + 1 < segments.length) {
+                segments = Arrays.copyOf(segments, segment + 1);
+                channel.truncate((long) (segment + 1) * segmentSize);
+            }
+            writePosition = (long) segment * segmentSize + offset;
+        }
+
+        private void index(final Key key, final long position, final int valueLength) {
+            final int recordLength = HEADER_LENGTH + key.bytes.length + Math.max(valueLength, 0);
+            totalBytes += recordLength;
+            final Long previous = valueLength == TOMBSTONE ? index.remove(key) : index.put(key, position);
+            if (previous != null)
+                liveBytes -= recordLength(previous);
+            if (valueLength != TOMBSTONE)
+                liveBytes += recordLength;
+        }
+
+        private int recordLength(final long position) {
+            final ByteBuffer buffer = segments[(int) (position / segmentSize)];
+            final int offset = (int) (position % segmentSize);
+            return HEADER_LENGTH + buffer.getInt(offset) + Math.max(buffer.getInt(offset + Integer.BYTES), 0);
+        }
+
+        /**
+         * @param value the value, or null to delete the key
+         */
+        private void append(final Key key, final ByteBuffer value) throws IOException {
+            final int valueLength = value == null ? TOMBSTONE : value.remaining();
+            final int length = HEADER_LENGTH + key.bytes.length + Math.max(valueLength, 0);
+            if (length > segmentSize)
+                throw new IllegalArgumentException("The record is larger than a segment: " + length);
+            int segment = (int) (writePosition / segmentSize);
+            int offset = (int) (writePosition % segmentSize);
+            if (segmentSize - offset < length) {
+                if (segment < segments.length && segmentSize - offset >= Integer.BYTES)
+                    segments[segment].putInt(offset, PADDING);
+                segment++;
+                offset = 0;
+            }
+            if (segment >= segments.length) {
+                final MappedByteBuffer[] extended = Arrays.copyOf(segments, segment + 1);
+                extended[segment] = map(segment);
+                segments = extended;
+            }
+            final ByteBuffer buffer = segments[segment].duplicate();
+            buffer.position(offset + HEADER_LENGTH);
+            buffer.put(key.bytes);
+            if (value != null)
+                buffer.put(value);
+            final CRC32 crc = new CRC32();
+            final ByteBuffer payload = buffer.duplicate();
+            payload.position(offset + HEADER_LENGTH).limit(offset + length);
+            crc.update(payload);
+            buffer.position(offset);
+            buffer.putInt(key.bytes.length).putInt(valueLength).putInt((int) crc.getValue());
+            writePosition = (long) segment * segmentSize + offset + length;
+            index(key, (long) segment * segmentSize + offset, valueLength);
+        }
+
+        private ByteBuffer get(final Key key) {
+            final Long position = index.get(key);
+            return position == null ? null : read(position);
+        }
+
+        private ByteBuffer read(final long position) {
+            final ByteBuffer buffer = segments[(int) (position / segmentSize)].duplicate();
+            final int offset = (int) (position % segmentSize);
+            final int keyLength = buffer.getInt(offset);
+            final int valueLength = buffer.getInt(offset + Integer.BYTES);
+            final int start = offset + HEADER_LENGTH + keyLength;
+            buffer.limit(start + valueLength).position(start);
+            return buffer.slice().asReadOnlyBuffer();
+        }
+
+        private long getFileSize() {
+            return (long) segments.length * segmentSize;
+        }
+
+        private void force() {
+            for (final MappedByteBuffer segment : segments)
+                segment.force();
+        }
+
+        /**
+         * Flush the file with its metadata, then give it its final name. The mapping survives the rename.
+         */
+        private void moveTo(final Path target) throws IOException {
+            channel.force(true);
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+            file = target;
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            }
+            catch (IOException e) {
+                LOGGER.log(Level.WARNING, e, () -> "Cannot close the store file: " + file);
+            }
+        }
+    }
+}
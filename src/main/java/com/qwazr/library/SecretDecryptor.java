@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * Decrypt the secrets written as {@code "ENC(...)"} in the configuration files.
+ * The decryptor is called once per distinct secret: the decrypted values are shared by the libraries.
+ *
+ * @see AesSecretDecryptor
+ * @see LibraryManager.Builder#secretDecryptor(SecretDecryptor)
+ */
+@FunctionalInterface
+public interface SecretDecryptor {
+
+    /**
+     * @param cipherText the text between the parenthesis of {@code "ENC(...)"}
+     * @return the decrypted bytes (UTF-8 for a password), which are cleared by the caller
+     * @throws GeneralSecurityException if the secret cannot be decrypted
+     */
+    byte[] decrypt(String cipherText) throws GeneralSecurityException;
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.component;
+
+import com.qwazr.component.annotations.Component;
+
+import java.util.List;
+
+@Component("A component used to test the invocations")
+public class CalculatorComponent implements ComponentInterface {
+
+    @Component("Add two integers")
+    public int add(final int a, final int b) {
+        return a + b;
+    }
+
+    @Component("Sum a list of numbers")
+    public long sum(final List<Long> values) {
+        return values.stream().mapToLong(Long::longValue).sum();
+    }
+
+    @Component("Describe an integer")
+    public String describe(final Integer value) {
+        return "integer " + value;
+    }
+
+    @Component("Describe a text")
+    public String describe(final String value) {
+        return "text " + value;
+    }
+
+    @Component("Always fails")
+    public void fail(final String message) {
+        throw new IllegalStateException(message);
+    }
+}
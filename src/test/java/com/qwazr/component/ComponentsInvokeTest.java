@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.component;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+public class ComponentsInvokeTest {
+
+    private static final String CALCULATOR = CalculatorComponent.class.getName();
+
+    private static ComponentsManager componentsManager;
+
+    @BeforeClass
+    public static void setup() {
+        componentsManager = new ComponentsManager(2).registerServices();
+        componentsManager.register(new CalculatorComponent());
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        componentsManager.close();
+    }
+
+    @Test
+    public void invoke() throws Exception {
+        Assert.assertEquals(5, componentsManager.invoke(new ComponentCall(CALCULATOR, "add", 2, 3)));
+        // The arguments are converted to the types of the parameters
+        Assert.assertEquals(7, componentsManager.invoke(new ComponentCall(CALCULATOR, "add", "3", 4L)));
+        Assert.assertEquals(6L, componentsManager.invoke(new ComponentCall(CALCULATOR, "sum", Arrays.asList(1, 2, 3))));
+        Assert.assertNull(componentsManager.invoke(new ComponentCall(HelloWorld.class.getName(), "print")));
+    }
+
+    @Test
+    public void overloads() throws Exception {
+        Assert.assertEquals("integer 1", componentsManager.invoke(new ComponentCall(CALCULATOR, "describe", 1)));
+        Assert.assertEquals("text 1", componentsManager.invoke(new ComponentCall(CALCULATOR, "describe", "1")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownComponent() throws Exception {
+        componentsManager.invoke(new ComponentCall("unknown", "add", 1, 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownMethod() throws Exception {
+        componentsManager.invoke(new ComponentCall(CALCULATOR, "add", 1));
+    }
+
+    @Test
+    public void invokeError() throws Exception {
+        try {
+            componentsManager.invoke(new ComponentCall(CALCULATOR, "fail", "expected"));
+            Assert.fail("The exception has not been thrown");
+        }
+        catch (IllegalStateException e) {
+            Assert.assertEquals("expected", e.getMessage());
+        }
+    }
+
+    @Test
+    public void invokeAsync() throws ExecutionException, InterruptedException {
+        Assert.assertEquals(9, componentsManager.invokeAsync(new ComponentCall(CALCULATOR, "add", 4, 5)).get());
+        try {
+            componentsManager.invokeAsync(new ComponentCall(CALCULATOR, "fail", "expected")).get();
+            Assert.fail("The exception has not been thrown");
+        }
+        catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void invokeBatch() throws ExecutionException, InterruptedException {
+        final List<ComponentCall> calls = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            calls.add(new ComponentCall(CALCULATOR, "add", i, 1));
+        calls.add(new ComponentCall(CALCULATOR, "fail", "expected"));
+        final List<ComponentCall.Result> results = componentsManager.invokeBatch(calls).get();
+        Assert.assertEquals(calls.size(), results.size());
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(i + 1, results.get(i).result);
+            Assert.assertNull(results.get(i).error);
+        }
+        Assert.assertNull(results.get(1000).result);
+        Assert.assertEquals("expected", results.get(1000).error);
+    }
+
+    @Test
+    public void serviceInvoke() {
+        final ComponentCall.Result result =
+                componentsManager.getService().invoke(new ComponentCall(CALCULATOR, "describe", "test"));
+        Assert.assertEquals("text test", result.result);
+        final ComponentCall.Result error =
+                componentsManager.getService().invoke(new ComponentCall(CALCULATOR, "unknown"));
+        Assert.assertNotNull(error.error);
+    }
+}
@@ -44,4 +44,22 @@ public class ComponentsManagerTest {
             }
         }
     }
+
+    @Test
+    public void lazyRegistration() throws Exception {
+        final ComponentsManager componentsManager = new ComponentsManager().registerServices();
+        final String lazyName = LazyComponent.class.getName();
+        Assert.assertTrue(componentsManager.getComponents().containsKey(lazyName));
+        Assert.assertTrue(componentsManager.getComponents().containsKey(HelloWorld.class.getName()));
+        Assert.assertEquals(0, LazyComponent.INSTANCES.get());
+        // Describing the component does not create it
+        final ComponentDescription.LinkClass linkClass = componentsManager.getComponents().get(lazyName);
+        Assert.assertNotNull(linkClass);
+        Assert.assertSame(linkClass, componentsManager.getComponents().get(lazyName));
+        Assert.assertEquals(0, LazyComponent.INSTANCES.get());
+        // The first call creates it, once
+        Assert.assertEquals(1, componentsManager.invoke(new ComponentCall(lazyName, "count")));
+        Assert.assertEquals(1, componentsManager.invoke(new ComponentCall(lazyName, "count")));
+        componentsManager.close();
+    }
 }
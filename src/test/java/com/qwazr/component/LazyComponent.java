@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.component;
+
+import com.qwazr.component.annotations.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Component("A component counting its instances")
+public class LazyComponent implements ComponentInterface {
+
+    static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    public LazyComponent() {
+        INSTANCES.incrementAndGet();
+    }
+
+    @Component("Return the number of instances")
+    public int count() {
+        return INSTANCES.get();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.qwazr.library.annotations.Library;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CacheTest {
+
+    private static LibraryManager libraryManager;
+
+    @Library("unbounded_cache")
+    private CacheLibrary unboundedCache;
+
+    @Library("bounded_cache")
+    private CacheLibrary boundedCache;
+
+    @Library("weighted_cache")
+    private CacheLibrary weightedCache;
+
+    @Library("refreshed_cache")
+    private CacheLibrary refreshedCache;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(Paths.get("src/test/resources/etc/cache.json"))
+                .build();
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        libraryManager.close();
+    }
+
+    @Test
+    public void hitsAndMisses() {
+        libraryManager.inject(this);
+        final AtomicInteger loads = new AtomicInteger();
+        for (int i = 0; i < 10; i++)
+            Assert.assertEquals("value", unboundedCache.get("key", key -> {
+                loads.incrementAndGet();
+                return "value";
+            }));
+        Assert.assertEquals(1, loads.get());
+        Assert.assertNull(unboundedCache.get("null", key -> null));
+        Assert.assertNull(unboundedCache.getIfPresent("null"));
+        final CacheLibrary.Stats stats = unboundedCache.getStats();
+        Assert.assertEquals(9, stats.hits);
+        Assert.assertTrue(stats.misses >= 2);
+    }
+
+    @Test
+    public void maximumSize() {
+        libraryManager.inject(this);
+        for (int i = 0; i < 1000; i++)
+            boundedCache.put(i, Integer.toString(i));
+        boundedCache.cleanUp();
+        Assert.assertTrue(boundedCache.getEstimatedSize() <= 100);
+        Assert.assertTrue(boundedCache.getStats().evictions >= 900);
+    }
+
+    @Test
+    public void maximumWeight() {
+        libraryManager.inject(this);
+        for (int i = 0; i < 100; i++)
+            weightedCache.put(i, new byte[100]);
+        weightedCache.cleanUp();
+        Assert.assertTrue(weightedCache.getEstimatedSize() <= 10);
+        Assert.assertTrue(weightedCache.getStats().evictionWeight >= 9000);
+    }
+
+    @Test
+    public void refreshAfterWrite() throws InterruptedException {
+        libraryManager.inject(this);
+        final AtomicInteger version = new AtomicInteger();
+        Assert.assertEquals(Integer.valueOf(1), refreshedCache.get("key", key -> version.incrementAndGet()));
+        Thread.sleep(100);
+        // The previous value is served while the refresh runs in the background
+        Assert.assertEquals(Integer.valueOf(1), refreshedCache.get("key", key -> version.incrementAndGet()));
+        final long timeout = System.currentTimeMillis() + 5000;
+        while (refreshedCache.<Integer>getIfPresent("key") == 1 && System.currentTimeMillis() < timeout)
+            Thread.sleep(10);
+        Assert.assertEquals(Integer.valueOf(2), refreshedCache.getIfPresent("key"));
+    }
+
+    @Test
+    public void putValueIsNotRefreshed() throws InterruptedException {
+        libraryManager.inject(this);
+        refreshedCache.put("put", "value");
+        Thread.sleep(100);
+        // Without loader, the refresh removes the entry instead of resetting its write time
+        refreshedCache.getIfPresent("put");
+        final long timeout = System.currentTimeMillis() + 5000;
+        while (refreshedCache.getIfPresent("put") != null && System.currentTimeMillis() < timeout)
+            Thread.sleep(10);
+        Assert.assertNull(refreshedCache.getIfPresent("put"));
+    }
+
+    @Test
+    public void sizeAndWeightAreExclusive() throws IOException {
+        final Path etcFile = Files.write(Files.createTempFile("library", ".json"),
+                ("{\"library\":{\"cache\":{\"class\":\"" + CacheLibrary.class.getName() +
+                        "\",\"maximum_size\":10,\"maximum_weight\":10}}}").getBytes(StandardCharsets.UTF_8));
+        try {
+            LibraryManager.of(Files.createTempDirectory("library-test")).etcFile(etcFile).build().close();
+            Assert.fail("The cache should be rejected");
+        }
+        catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("maximum_size"));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class ConfigurationCacheTest {
+
+    private static LibraryManager newLibraryManager(final Path dataDirectory, final Path etcFile) {
+        return LibraryManager.of(dataDirectory).etcFile(etcFile).configurationCache(true).build();
+    }
+
+    private static List<Path> listCacheFiles(final Path dataDirectory) throws IOException {
+        try (final Stream<Path> stream = Files.list(
+                dataDirectory.resolve(LibraryManager.CONFIGURATION_CACHE_DIRECTORY))) {
+            return stream.collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void restartFromCache() throws IOException {
+        final Path dataDirectory = Files.createTempDirectory("library-test");
+        final Path etcFile = Files.copy(Paths.get("src/test/resources/etc/library.json"),
+                Files.createTempDirectory("library-etc").resolve("library.json"));
+
+        try (final LibraryManager libraryManager = newLibraryManager(dataDirectory, etcFile)) {
+            Assert.assertEquals(3, libraryManager.size());
+        }
+        final List<Path> cacheFiles = listCacheFiles(dataDirectory);
+        Assert.assertEquals(1, cacheFiles.size());
+
+        try (final LibraryManager libraryManager = newLibraryManager(dataDirectory, etcFile)) {
+            final CustomLibrary custom = libraryManager.getLibrary("custom");
+            Assert.assertNotNull(custom);
+            Assert.assertEquals(Integer.valueOf(12), custom.myParam);
+            Assert.assertTrue(custom.isLoaded());
+            Assert.assertEquals(CustomPasswordLibrary.class.getName(),
+                    libraryManager.getLibraries().get("customPassword"));
+        }
+
+        // Same content, new modification time: the copy is still valid
+        Files.setLastModifiedTime(etcFile, FileTime.fromMillis(Files.getLastModifiedTime(etcFile).toMillis() + 60000));
+        try (final LibraryManager libraryManager = newLibraryManager(dataDirectory, etcFile)) {
+            Assert.assertEquals(3, libraryManager.size());
+        }
+        Assert.assertEquals(cacheFiles, listCacheFiles(dataDirectory));
+    }
+
+    @Test
+    public void changedFileIsParsedAgain() throws IOException {
+        final Path dataDirectory = Files.createTempDirectory("library-test");
+        final Path etcFile = Files.copy(Paths.get("src/test/resources/etc/library.json"),
+                Files.createTempDirectory("library-etc").resolve("library.json"));
+        try (final LibraryManager libraryManager = newLibraryManager(dataDirectory, etcFile)) {
+            Assert.assertEquals(3, libraryManager.size());
+        }
+
+        Files.write(etcFile, "{\"library\":{\"other\":{\"class\":\"com.qwazr.library.CustomLibrary\",\"myParam\":7}}}"
+                .getBytes());
+        try (final LibraryManager libraryManager = newLibraryManager(dataDirectory, etcFile)) {
+            Assert.assertEquals(1, libraryManager.size());
+            final CustomLibrary other = libraryManager.getLibrary("other");
+            Assert.assertEquals(Integer.valueOf(7), other.myParam);
+        }
+    }
+
+    @Test
+    public void corruptedCacheIsReplaced() throws IOException {
+        final Path dataDirectory = Files.createTempDirectory("library-test");
+        final Path etcFile = Paths.get("src/test/resources/etc/library.json");
+        try (final LibraryManager libraryManager = newLibraryManager(dataDirectory, etcFile)) {
+            Assert.assertEquals(3, libraryManager.size());
+        }
+        for (final Path cacheFile : listCacheFiles(dataDirectory))
+            Files.write(cacheFile, new byte[128]);
+        try (final LibraryManager libraryManager = newLibraryManager(dataDirectory, etcFile)) {
+            Assert.assertEquals(3, libraryManager.size());
+            Assert.assertNotNull(libraryManager.getLibrary("customAbstract"));
+        }
+    }
+
+    @Test
+    public void changedSystemPropertyIsResolvedAgain() throws IOException {
+        final Path dataDirectory = Files.createTempDirectory("library-test");
+        final Path etcFile = Files.write(Files.createTempDirectory("library-etc").resolve("library.json"),
+                ("{\"variables\":{},\"library\":{\"custom\":{\"class\":\"com.qwazr.library.CustomLibrary\"," +
+                        "\"myParam\":\"${qwazr.cache.test.param:5}\"}}}").getBytes());
+        try {
+            try (final LibraryManager libraryManager = newLibraryManager(dataDirectory, etcFile)) {
+                Assert.assertEquals(Integer.valueOf(5), libraryManager.<CustomLibrary>getLibrary("custom").myParam);
+            }
+            System.setProperty("qwazr.cache.test.param", "9");
+            try (final LibraryManager libraryManager = newLibraryManager(dataDirectory, etcFile)) {
+                Assert.assertEquals(Integer.valueOf(9), libraryManager.<CustomLibrary>getLibrary("custom").myParam);
+            }
+        }
+        finally {
+            System.clearProperty("qwazr.cache.test.param");
+        }
+    }
+
+    @Test
+    public void configurationErrorIsNotCached() throws IOException {
+        final Path dataDirectory = Files.createTempDirectory("library-test");
+        final Path etcFile = Files.write(Files.createTempDirectory("library-etc").resolve("library.json"),
+                "{\"library\":{\"unknown\":{\"class\":\"com.qwazr.library.UnknownLibrary\"}}}".getBytes());
+        final LibraryConfigurationCache cache =
+                new LibraryConfigurationCache(dataDirectory.resolve(LibraryManager.CONFIGURATION_CACHE_DIRECTORY));
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.read(etcFile);
+                Assert.fail("The unknown class has not been reported");
+            }
+            catch (IOException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("UnknownLibrary"));
+            }
+        }
+        Assert.assertFalse(Files.exists(dataDirectory.resolve(LibraryManager.CONFIGURATION_CACHE_DIRECTORY)));
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class CustomCloseableLibrary implements LibraryInterface, Closeable {
+
+    /**
+     * The tags of the closed libraries, to check libraries the test cannot look up
+     */
+    static final Set<String> CLOSED_TAGS = ConcurrentHashMap.newKeySet();
+
+    public final String tag = null;
+
+    final AtomicBoolean closed = new AtomicBoolean(false);
+
+    @Override
+    public void close() {
+        closed.set(true);
+        if (tag != null)
+            CLOSED_TAGS.add(tag);
+    }
+}
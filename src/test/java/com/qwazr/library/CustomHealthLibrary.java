@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CustomHealthLibrary implements LibraryInterface, LibraryHealthCheck {
+
+    public final String failure = null;
+
+    public final Integer delay = null;
+
+    final AtomicInteger checkCount = new AtomicInteger();
+
+    volatile String runtimeFailure;
+
+    @Override
+    public void checkHealth() throws Exception {
+        checkCount.incrementAndGet();
+        if (delay != null)
+            Thread.sleep(delay);
+        if (failure != null)
+            throw new Exception(failure);
+        if (runtimeFailure != null)
+            throw new Exception(runtimeFailure);
+    }
+}
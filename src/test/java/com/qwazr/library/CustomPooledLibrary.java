@@ -0,0 +1,43 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class CustomPooledLibrary extends AbstractPooledLibrary<CustomPooledLibrary.Resource> {
+
+    final Set<Resource> created = ConcurrentHashMap.newKeySet();
+
+    @Override
+    protected Resource createObject() {
+        final Resource resource = new Resource();
+        created.add(resource);
+        return resource;
+    }
+
+    public static class Resource implements AutoCloseable {
+
+        final AtomicBoolean inUse = new AtomicBoolean();
+        volatile boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
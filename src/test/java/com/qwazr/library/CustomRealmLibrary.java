@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import io.undertow.security.idm.Account;
+import io.undertow.security.idm.Credential;
+import io.undertow.security.idm.IdentityManager;
+import io.undertow.security.idm.PasswordCredential;
+
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CustomRealmLibrary extends AbstractLibrary implements IdentityManager {
+
+    final AtomicInteger verifications = new AtomicInteger();
+
+    @Override
+    public Account verify(final Account account) {
+        return account;
+    }
+
+    @Override
+    public Account verify(final String id, final Credential credential) {
+        verifications.incrementAndGet();
+        if (!(credential instanceof PasswordCredential))
+            return null;
+        if (!Arrays.equals("secret".toCharArray(), ((PasswordCredential) credential).getPassword()))
+            return null;
+        return new Account() {
+
+            @Override
+            public Principal getPrincipal() {
+                return () -> id;
+            }
+
+            @Override
+            public Set<String> getRoles() {
+                return Collections.emptySet();
+            }
+        };
+    }
+
+    @Override
+    public Account verify(final Credential credential) {
+        return null;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class CustomReplicaLibrary extends AbstractLibrary implements Closeable {
+
+    /**
+     * The loaded instances of each "param" value, used to make the replicas of a library fail after some loads
+     */
+    static final Map<String, List<CustomReplicaLibrary>> LOADED = new ConcurrentHashMap<>();
+
+    public final String param = null;
+
+    public final Integer fail_after_loads = null;
+
+    volatile int loads;
+    volatile boolean closed;
+
+    @Override
+    public synchronized void load() {
+        if (fail_after_loads != null) {
+            final List<CustomReplicaLibrary> loaded = LOADED.computeIfAbsent(param, p -> new CopyOnWriteArrayList<>());
+            if (loaded.size() >= fail_after_loads)
+                throw new IllegalStateException("Replica load failure: " + param);
+            loaded.add(this);
+        }
+        loads++;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
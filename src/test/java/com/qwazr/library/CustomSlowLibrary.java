@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+public class CustomSlowLibrary extends AbstractLibrary implements Closeable {
+
+    @JsonProperty("load_delay_ms")
+    public final Long loadDelayMs = null;
+
+    @JsonProperty("async_load_delay_ms")
+    public final Long asyncLoadDelayMs = null;
+
+    @JsonProperty("close_delay_ms")
+    public final Long closeDelayMs = null;
+
+    volatile boolean loaded;
+    volatile boolean loadInterrupted;
+    volatile boolean closeInterrupted;
+    volatile boolean closed;
+
+    @Override
+    public void load() {
+        if (loadDelayMs != null) {
+            try {
+                Thread.sleep(loadDelayMs);
+            }
+            catch (InterruptedException e) {
+                loadInterrupted = true;
+                throw new RuntimeException(e);
+            }
+        }
+        loaded = true;
+    }
+
+    @Override
+    public CompletionStage<Void> loadAsync() {
+        if (asyncLoadDelayMs == null)
+            return super.loadAsync();
+        return CompletableFuture.runAsync(() -> loaded = true,
+                CompletableFuture.delayedExecutor(asyncLoadDelayMs, TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (closeDelayMs == null)
+            return;
+        try {
+            Thread.sleep(closeDelayMs);
+        }
+        catch (InterruptedException e) {
+            closeInterrupted = true;
+        }
+    }
+}
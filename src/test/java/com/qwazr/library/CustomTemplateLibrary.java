@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+import java.util.Map;
+
+public class CustomTemplateLibrary extends AbstractLibrary {
+
+    @JsonProperty("url")
+    public final String url = null;
+
+    @JsonProperty("pool_max")
+    public final Integer poolMax = null;
+
+    @JsonProperty("timeout")
+    public final Long timeout = null;
+
+    @JsonProperty("tags")
+    public final List<String> tags = null;
+
+    @JsonProperty("options")
+    public final Map<String, Object> options = null;
+}
@@ -72,4 +72,30 @@ public class CustomTest {
         Assert.assertEquals(libraryManager, customPassword.getLibraryManager());
         Assert.assertEquals("myPass", customPassword.password);
     }
+
+    static class InjectedParent {
+
+        @Library("custom")
+        CustomLibrary custom;
+    }
+
+    static class InjectedChild extends InjectedParent {
+
+        @Library("customPassword")
+        CustomPasswordLibrary customPassword;
+
+        @Library("unknown")
+        CustomLibrary unknown;
+    }
+
+    @Test
+    public void checkInjectHierarchy() {
+        for (int i = 0; i < 2; i++) {
+            final InjectedChild child = new InjectedChild();
+            libraryManager.getService().inject(child);
+            Assert.assertSame(custom, child.custom);
+            Assert.assertSame(customPassword, child.customPassword);
+            Assert.assertNull(child.unknown);
+        }
+    }
 }
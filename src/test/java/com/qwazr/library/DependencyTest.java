@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class DependencyTest {
+
+    private final static Path DEPENDENCIES_JSON = Paths.get("src/test/resources/etc/dependencies.json");
+    private final static Path CYCLE_JSON = Paths.get("src/test/resources/etc/cycle.json");
+
+    private static void checkDependencies(final int loadParallelism) throws IOException {
+        try (final LibraryManager libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(DEPENDENCIES_JSON)
+                .loadParallelism(loadParallelism)
+                .build()) {
+            final CustomDependentLibrary dependent = libraryManager.getLibrary("dependent");
+            Assert.assertTrue(dependent.baseLoadedFirst);
+            Assert.assertSame(libraryManager.getLibrary("base"), dependent.base);
+            Assert.assertSame(libraryManager.getLibrary("other"), dependent.other);
+            Assert.assertEquals(Integer.valueOf(2), dependent.other.myParam);
+        }
+    }
+
+    @Test
+    public void sequentialLoad() throws IOException {
+        checkDependencies(1);
+    }
+
+    @Test
+    public void parallelLoad() throws IOException {
+        checkDependencies(4);
+    }
+
+    @Test
+    public void reload() throws IOException {
+        try (final LibraryManager libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(DEPENDENCIES_JSON)
+                .build()) {
+            final CustomLibrary previousBase = libraryManager.getLibrary("base");
+            libraryManager.loadLibrarySet(DEPENDENCIES_JSON);
+            final CustomDependentLibrary dependent = libraryManager.getLibrary("dependent");
+            // The dependencies are the new instances, not the published ones
+            Assert.assertNotSame(previousBase, dependent.base);
+            Assert.assertSame(libraryManager.getLibrary("base"), dependent.base);
+            Assert.assertSame(libraryManager.getLibrary("other"), dependent.other);
+        }
+    }
+
+    @Test
+    public void reinjectWhenDependencyReloaded() throws IOException {
+        final Path baseFile = Files.write(Files.createTempFile("library-base", ".json"),
+                ("{\"library\":{\"base\":{\"class\":\"" + CustomLibrary.class.getName() + "\"}}}")
+                        .getBytes(StandardCharsets.UTF_8));
+        final Path dependentFile = Files.write(Files.createTempFile("library-dependent", ".json"),
+                ("{\"library\":{\"dependent\":{\"class\":\"" + CustomDependentLibrary.class.getName() +
+                        "\",\"dependencies\":[\"other\"]},\"other\":{\"class\":\"" +
+                        CustomLibrary.class.getName() + "\"}}}")
+                        .getBytes(StandardCharsets.UTF_8));
+        try (final LibraryManager libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(baseFile)
+                .etcFile(dependentFile)
+                .build()) {
+            final CustomDependentLibrary dependent = libraryManager.getLibrary("dependent");
+            final CustomLibrary previousBase = libraryManager.getLibrary("base");
+            Assert.assertSame(previousBase, dependent.base);
+            // Only the file of the dependency is reloaded, the dependent is injected again
+            libraryManager.loadLibrarySet(baseFile);
+            Assert.assertSame(dependent, libraryManager.getLibrary("dependent"));
+            Assert.assertNotSame(previousBase, dependent.base);
+            Assert.assertSame(libraryManager.getLibrary("base"), dependent.base);
+        }
+    }
+
+    @Test
+    public void circularDependencies() throws IOException {
+        try {
+            LibraryManager.of(Files.createTempDirectory("library-test")).etcFile(CYCLE_JSON).build();
+            Assert.fail("The circular dependencies should be detected");
+        }
+        catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("first -> second -> first"));
+        }
+    }
+}
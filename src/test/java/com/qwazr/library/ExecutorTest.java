@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+
+public class ExecutorTest {
+
+    private static LibraryManager newLibraryManager(final boolean virtualThreads) throws IOException {
+        return LibraryManager.of(Files.createTempDirectory("library-test"))
+                .virtualThreads(virtualThreads)
+                .executorThreads(8)
+                .drainTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    private static void checkConcurrencyLimit(final boolean virtualThreads)
+            throws IOException, ExecutionException, InterruptedException {
+        try (final LibraryManager libraryManager = newLibraryManager(virtualThreads)) {
+            final LibraryExecutor executor = libraryManager.getExecutor("limited", 2);
+            Assert.assertEquals(2, libraryManager.getExecutor("limited", 4).getMaxConcurrency());
+
+            final AtomicInteger running = new AtomicInteger();
+            final LongAccumulator maxRunning = new LongAccumulator(Long::max, 0);
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++)
+                futures.add(executor.submit(() -> {
+                    maxRunning.accumulate(running.incrementAndGet());
+                    try {
+                        Thread.sleep(10);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                }));
+            for (final Future<?> future : futures)
+                future.get();
+            Assert.assertTrue(maxRunning.get() <= 2);
+
+            final LibraryMetrics.ExecutorReport report = libraryManager.getMetrics().executors.get("limited");
+            Assert.assertEquals(2, report.maxConcurrency);
+            Assert.assertEquals(20, report.completed);
+            Assert.assertEquals(0, report.queued);
+            Assert.assertEquals(20, report.queueWait.count);
+        }
+    }
+
+    @Test
+    public void concurrencyLimit() throws IOException, ExecutionException, InterruptedException {
+        checkConcurrencyLimit(true);
+    }
+
+    @Test
+    public void platformThreads() throws IOException, ExecutionException, InterruptedException {
+        checkConcurrencyLimit(false);
+    }
+
+    @Test
+    public void managedLifecycle() throws IOException, ExecutionException, InterruptedException {
+        try (final LibraryManager libraryManager = newLibraryManager(true)) {
+            final LibraryExecutor executor = libraryManager.getExecutor("managed");
+            final LibraryExecutor other = libraryManager.getExecutor("managed");
+            executor.shutdown();
+            Assert.assertTrue(executor.isShutdown());
+            Assert.assertTrue(executor.isTerminated());
+            try {
+                executor.execute(() -> {
+                });
+                Assert.fail("The handle should be shut down");
+            }
+            catch (RejectedExecutionException e) {
+                // Expected
+            }
+            // The other handles are not shut down
+            Assert.assertFalse(other.isShutdown());
+            Assert.assertEquals(Integer.valueOf(1), other.submit(() -> 1).get());
+        }
+    }
+
+    @Test
+    public void shutdownAndAwaitTermination() throws IOException, InterruptedException {
+        try (final LibraryManager libraryManager = newLibraryManager(true)) {
+            final LibraryExecutor executor = libraryManager.getExecutor("awaited", 1);
+            final LibraryExecutor other = libraryManager.getExecutor("awaited", 1);
+            final CountDownLatch release = new CountDownLatch(1);
+            // A task of another handle which does not finish
+            other.execute(() -> {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            final AtomicInteger done = new AtomicInteger();
+            executor.execute(done::incrementAndGet);
+            executor.shutdown();
+            // The queued task of this handle is waited for, not the one of the other handle
+            release.countDown();
+            Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            Assert.assertEquals(1, done.get());
+
+            final LibraryExecutor idle = libraryManager.getExecutor("awaited");
+            idle.shutdown();
+            final long start = System.nanoTime();
+            Assert.assertTrue(idle.awaitTermination(30, TimeUnit.SECONDS));
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        }
+    }
+
+    @Test
+    public void shutdownNowReturnsPendingTasks() throws IOException, InterruptedException {
+        try (final LibraryManager libraryManager = newLibraryManager(true)) {
+            final LibraryExecutor executor = libraryManager.getExecutor("stopped", 1);
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch interrupted = new CountDownLatch(1);
+            executor.execute(() -> {
+                started.countDown();
+                try {
+                    Thread.sleep(60_000);
+                }
+                catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            });
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            final Runnable pending = () -> {
+            };
+            executor.execute(pending);
+            Assert.assertEquals(List.of(pending), executor.shutdownNow());
+            Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void closeWaitsForTasks() throws IOException, InterruptedException {
+        final LibraryExecutor executor;
+        final AtomicInteger done = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        try (final LibraryManager libraryManager = newLibraryManager(true)) {
+            executor = libraryManager.getExecutor("closing", 1);
+            for (int i = 0; i < 3; i++)
+                executor.execute(() -> {
+                    started.countDown();
+                    try {
+                        Thread.sleep(50);
+                        done.incrementAndGet();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(3, done.get());
+        Assert.assertTrue(executor.isShutdown());
+        Assert.assertTrue(executor.isTerminated());
+        try {
+            executor.execute(done::incrementAndGet);
+            Assert.fail("The executor should be shut down");
+        }
+        catch (RejectedExecutionException e) {
+            Assert.assertEquals(3, done.get());
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import java.util.Collection;
+import java.util.Collections;
+
+public class FailingLibrary implements LibraryInterface {
+
+    public final Collection<String> dependencies = null;
+
+    @Override
+    public void load() {
+        throw new IllegalStateException("Failing library");
+    }
+
+    @Override
+    public Collection<String> getDependencies() {
+        return dependencies == null ? Collections.emptySet() : dependencies;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+public class HealthTest {
+
+    @Test
+    public void health() throws IOException {
+        try (final LibraryManager libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(Paths.get("src/test/resources/etc/health.json"))
+                .etcFile(Paths.get("src/test/resources/etc/library.json"))
+                .healthCheck(Duration.ofMillis(500), Duration.ofMinutes(1))
+                .build()) {
+            final long start = System.nanoTime();
+            final LibraryHealth.Report report = libraryManager.getHealth();
+            // The checks run in parallel: the whole round is bounded by the timeout
+            Assert.assertTrue(System.nanoTime() - start < Duration.ofSeconds(4).toNanos());
+            Assert.assertEquals(LibraryHealth.Status.DOWN, report.status);
+            Assert.assertEquals(3, report.libraries.size());
+            Assert.assertEquals(LibraryHealth.Status.UP, report.libraries.get("healthy").status);
+            Assert.assertEquals("Connection refused", report.libraries.get("unhealthy").message);
+            Assert.assertEquals("Timeout", report.libraries.get("slow").message);
+
+            // Cached during the TTL
+            Assert.assertSame(report, libraryManager.getHealth());
+            final CustomHealthLibrary healthy = libraryManager.getLibrary("healthy");
+            Assert.assertEquals(1, healthy.checkCount.get());
+
+            final Response response = libraryManager.getService().getHealth();
+            Assert.assertEquals(503, response.getStatus());
+        }
+    }
+
+    @Test
+    public void everyReplicaIsChecked() throws IOException {
+        final Path etcFile = Files.write(Files.createTempFile("library", ".json"),
+                ("{\"library\":{\"replicated\":{\"class\":\"" + CustomHealthLibrary.class.getName() +
+                        "\",\"replicas\":3}}}").getBytes(StandardCharsets.UTF_8));
+        try (final LibraryManager libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(etcFile)
+                .healthCheck(Duration.ofSeconds(5), Duration.ZERO)
+                .build()) {
+            final LibraryInterface[] replicas = libraryManager.getSnapshot().entries.get("replicated").instances;
+            Assert.assertEquals(LibraryHealth.Status.UP, libraryManager.getHealth().status);
+            for (final LibraryInterface replica : replicas)
+                Assert.assertEquals(1, ((CustomHealthLibrary) replica).checkCount.get());
+
+            ((CustomHealthLibrary) replicas[2]).runtimeFailure = "Connection lost";
+            final LibraryHealth.Report report = libraryManager.getHealth();
+            Assert.assertEquals(LibraryHealth.Status.DOWN, report.status);
+            Assert.assertEquals("Replica 2: Connection lost", report.libraries.get("replicated").message);
+        }
+    }
+}
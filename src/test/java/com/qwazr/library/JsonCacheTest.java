@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+
+public class JsonCacheTest {
+
+    private final static Path LIBRARY_JSON = Paths.get("src/test/resources/etc/library.json");
+
+    private static LibraryManager libraryManager;
+    private static LibraryJsonCache jsonCache;
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        libraryManager = LibraryManager.of(Files.createTempDirectory("library-test")).etcFile(LIBRARY_JSON).build();
+        jsonCache = new LibraryJsonCache(libraryManager);
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        libraryManager.close();
+    }
+
+    @Test
+    public void cachedUntilReload() {
+        final LibraryJsonCache.Json libraries = jsonCache.getLibraries();
+        final LibraryJsonCache.Json custom = jsonCache.getLibrary("custom");
+        Assert.assertSame(libraries, jsonCache.getLibraries());
+        Assert.assertSame(custom, jsonCache.getLibrary("custom"));
+        Assert.assertNull(jsonCache.getLibrary("unknown"));
+        Assert.assertTrue(new String(custom.bytes, StandardCharsets.UTF_8).contains(CustomLibrary.class.getName()));
+
+        libraryManager.loadLibrarySet(LIBRARY_JSON);
+
+        Assert.assertNotSame(libraries, jsonCache.getLibraries());
+        Assert.assertNotSame(custom, jsonCache.getLibrary("custom"));
+        // Same content, same entity tag
+        Assert.assertEquals(libraries.entityTag, jsonCache.getLibraries().entityTag);
+        Assert.assertEquals(custom.entityTag, jsonCache.getLibrary("custom").entityTag);
+    }
+
+    /**
+     * Run the filter as the JAX-RS runtime does, for the given resource method and If-None-Match header
+     *
+     * @return the response of the filter, or null if the request goes on to the resource method
+     */
+    private static Response filter(final String methodName, final String libraryName, final String ifNoneMatch)
+            throws NoSuchMethodException {
+        final LibraryJsonCacheFilter filter = libraryManager.getJsonCacheFilter();
+        final Method method = libraryName == null ?
+                LibraryServiceInterface.class.getMethod(methodName) :
+                LibraryServiceInterface.class.getMethod(methodName, String.class);
+        filter.resourceInfo = proxy(ResourceInfo.class, (name, args) -> "getResourceMethod".equals(name) ?
+                method :
+                null);
+        final MultivaluedMap<String, String> pathParameters = new MultivaluedHashMap<>();
+        if (libraryName != null)
+            pathParameters.putSingle("library_name", libraryName);
+        final UriInfo uriInfo =
+                proxy(UriInfo.class, (name, args) -> "getPathParameters".equals(name) ? pathParameters : null);
+        final AtomicReference<Response> aborted = new AtomicReference<>();
+        filter.filter(proxy(ContainerRequestContext.class, (name, args) -> {
+            switch (name) {
+            case "getMethod":
+                return HttpMethod.GET;
+            case "getUriInfo":
+                return uriInfo;
+            case "getHeaderString":
+                return HttpHeaders.IF_NONE_MATCH.equals(args[0]) ? ifNoneMatch : null;
+            case "abortWith":
+                aborted.set((Response) args[0]);
+                return null;
+            default:
+                throw new UnsupportedOperationException(name);
+            }
+        }));
+        return aborted.get();
+    }
+
+    private static <T> T proxy(final Class<T> type, final BiFunction<String, Object[], Object> handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> handler.apply(method.getName(), args)));
+    }
+
+    @Test
+    public void conditionalRequests() throws NoSuchMethodException {
+        final Response first = filter("getLibraries", null, null);
+        Assert.assertEquals(200, first.getStatus());
+        final EntityTag entityTag = first.getEntityTag();
+        Assert.assertEquals(jsonCache.getLibraries().entityTag, entityTag);
+        Assert.assertArrayEquals(jsonCache.getLibraries().bytes, (byte[]) first.getEntity());
+
+        final String ifNoneMatch = "\"" + entityTag.getValue() + "\"";
+        Assert.assertEquals(304, filter("getLibraries", null, ifNoneMatch).getStatus());
+        Assert.assertEquals(304, filter("getLibraries", null, "\"other\", W/" + ifNoneMatch).getStatus());
+        Assert.assertEquals(304, filter("getLibraries", null, "*").getStatus());
+        Assert.assertEquals(200, filter("getLibraries", null, "\"other\"").getStatus());
+
+        final Response custom = filter("getLibrary", "custom", null);
+        Assert.assertEquals(200, custom.getStatus());
+        final String customTag = "\"" + custom.getEntityTag().getValue() + "\"";
+        Assert.assertEquals(304, filter("getLibrary", "custom", customTag).getStatus());
+        Assert.assertEquals(200, filter("getLibrary", "custom", ifNoneMatch).getStatus());
+
+        // An unknown library goes on to the resource method
+        Assert.assertNull(filter("getLibrary", "unknown", null));
+        Assert.assertNull(filter("getMetrics", null, null));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class LazyTest {
+
+    @Test
+    public void loadedOnceOnFirstUse() throws IOException, InterruptedException, ExecutionException {
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try (final LibraryManager libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(Paths.get("src/test/resources/etc/lazy.json"))
+                .build()) {
+            Assert.assertTrue(libraryManager.containsKey("customLazy"));
+            Assert.assertEquals(CustomLazyLibrary.class.getName(), libraryManager.getLibraries().get("customLazy"));
+            final CustomLazyLibrary notLoaded = (CustomLazyLibrary) libraryManager.entrySet().iterator().next().getValue();
+            Assert.assertEquals(0, notLoaded.loadCount.get());
+            Assert.assertEquals(libraryManager, notLoaded.libraryManager);
+
+            final List<Future<CustomLazyLibrary>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++)
+                futures.add(executorService.submit(() -> libraryManager.getLibrary("customLazy")));
+            for (Future<CustomLazyLibrary> future : futures)
+                Assert.assertSame(notLoaded, future.get());
+            Assert.assertEquals(1, notLoaded.loadCount.get());
+        }
+        finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void closedEntryIsNotLoaded() throws IOException {
+        try (final LibraryManager libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(Paths.get("src/test/resources/etc/lazy.json"))
+                .build()) {
+            // A reader still holding the entry after it has been retired and closed
+            final LibraryEntry entry = libraryManager.getSnapshot().entries.get("customLazy");
+            entry.closeAsync().join();
+            try {
+                entry.get();
+                Assert.fail("A closed entry has been loaded");
+            }
+            catch (IllegalStateException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("customLazy"));
+            }
+            Assert.assertEquals(0, ((CustomLazyLibrary) entry.library).loadCount.get());
+        }
+    }
+
+    @Test
+    public void selfLookupWhileLoading() throws IOException {
+        final Path etcFile = Files.write(Files.createTempFile("library", ".json"),
+                ("{\"library\":{\"selfLazy\":{\"class\":\"" + CustomLazyLibrary.class.getName() +
+                        "\",\"lazy\":true,\"self_lookup\":\"selfLazy\"}}}").getBytes(StandardCharsets.UTF_8));
+        try (final LibraryManager libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(etcFile)
+                .build()) {
+            try {
+                libraryManager.getLibrary("selfLazy");
+                Assert.fail("The recursive load has not been detected");
+            }
+            catch (IllegalStateException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("selfLazy"));
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+public class LeaseTest {
+
+    private static Path writeConfiguration(final Path etcFile) throws IOException {
+        return Files.write(etcFile, ("{\"library\":{\"closeable\":{\"class\":\"" +
+                CustomCloseableLibrary.class.getName() + "\"}}}").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void waitForClose(final CustomCloseableLibrary library) throws InterruptedException {
+        final long timeout = System.currentTimeMillis() + 30_000;
+        while (!library.closed.get()) {
+            Assert.assertTrue("Timeout", System.currentTimeMillis() < timeout);
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    public void closedWhenLeaseReleased() throws IOException, InterruptedException {
+        final Path etcFile = writeConfiguration(Files.createTempFile("library", ".json"));
+        try (final LibraryManager libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(etcFile)
+                .drainTimeout(Duration.ofMinutes(5))
+                .closeGracePeriod(Duration.ofMillis(500))
+                .build()) {
+
+            // Without lease, the replaced library is closed once the grace period is expired
+            final CustomCloseableLibrary first = libraryManager.getLibrary("closeable");
+            libraryManager.loadLibrarySet(etcFile);
+            Assert.assertFalse(first.closed.get());
+            Assert.assertEquals(1, libraryManager.getPendingCloseCount());
+            waitForClose(first);
+            Assert.assertEquals(0, libraryManager.getPendingCloseCount());
+
+            final CustomCloseableLibrary second;
+            try (final LibraryLease<CustomCloseableLibrary> lease = libraryManager.leaseLibrary("closeable")) {
+                second = lease.get();
+                libraryManager.loadLibrarySet(etcFile);
+                Assert.assertNotSame(second, libraryManager.getLibrary("closeable"));
+                Assert.assertFalse(second.closed.get());
+                Assert.assertEquals(1, libraryManager.getPendingCloseCount());
+            }
+            waitForClose(second);
+            Assert.assertEquals(0, libraryManager.getPendingCloseCount());
+        }
+    }
+
+    @Test
+    public void notClosedDuringGracePeriod() throws IOException, InterruptedException {
+        final Path etcFile = writeConfiguration(Files.createTempFile("library", ".json"));
+        final CustomCloseableLibrary first;
+        try (final LibraryManager libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(etcFile)
+                .drainTimeout(Duration.ofMinutes(5))
+                .closeGracePeriod(Duration.ofMinutes(5))
+                .build()) {
+            first = libraryManager.getLibrary("closeable");
+            try (final LibraryLease<CustomCloseableLibrary> lease = libraryManager.leaseLibrary("closeable")) {
+                Assert.assertSame(first, lease.get());
+                libraryManager.loadLibrarySet(etcFile);
+            }
+            // The lease is released, but the library may still be used by the caller of getLibrary
+            Thread.sleep(300);
+            Assert.assertFalse(first.closed.get());
+            Assert.assertEquals(1, libraryManager.getPendingCloseCount());
+        }
+        Assert.assertTrue(first.closed.get());
+    }
+
+    @Test
+    public void closedWhenDrainTimeoutExpired() throws IOException, InterruptedException {
+        final Path etcFile = writeConfiguration(Files.createTempFile("library", ".json"));
+        try (final LibraryManager libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(etcFile)
+                .drainTimeout(Duration.ofMillis(200))
+                .build()) {
+            final LibraryLease<CustomCloseableLibrary> lease = libraryManager.leaseLibrary("closeable");
+            libraryManager.unloadLibrarySet(etcFile);
+            Assert.assertNull(libraryManager.leaseLibrary("closeable"));
+            waitForClose(lease.get());
+            lease.close();
+        }
+    }
+}
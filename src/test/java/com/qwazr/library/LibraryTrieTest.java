@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LibraryTrieTest {
+
+    private static LibraryEntry newEntry(final String name) {
+        return new LibraryEntry(name, new LibraryInterface[]{new CustomLibrary()}, null, null);
+    }
+
+    private static void assertSameContent(final Map<String, LibraryEntry> expected, final LibraryTrie trie) {
+        Assert.assertEquals(expected.size(), trie.size());
+        Assert.assertEquals(expected, trie);
+        expected.forEach((name, entry) -> Assert.assertSame(entry, trie.get(name)));
+        final Map<String, LibraryEntry> iterated = new HashMap<>();
+        trie.forEach(iterated::put);
+        Assert.assertEquals(expected, iterated);
+    }
+
+    @Test
+    public void randomOperations() {
+        final Random random = new Random(1234);
+        final Map<String, LibraryEntry> expected = new HashMap<>();
+        LibraryTrie trie = LibraryTrie.EMPTY;
+        for (int i = 0; i < 20000; i++) {
+            final String name = "lib" + random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(name);
+                trie = trie.without(name);
+            } else {
+                final LibraryEntry entry = newEntry(name);
+                expected.put(name, entry);
+                trie = trie.with(name, entry);
+            }
+        }
+        assertSameContent(expected, trie);
+    }
+
+    @Test
+    public void previousVersionIsUnchanged() {
+        final LibraryEntry first = newEntry("first");
+        final LibraryTrie before = LibraryTrie.EMPTY.with("first", first).with("second", newEntry("second"));
+        final LibraryTrie after = before.with("first", newEntry("first")).without("second");
+        Assert.assertSame(first, before.get("first"));
+        Assert.assertEquals(2, before.size());
+        Assert.assertNotSame(first, after.get("first"));
+        Assert.assertEquals(1, after.size());
+        Assert.assertSame(before, before.with("first", first));
+        Assert.assertSame(before, before.without("unknown"));
+    }
+
+    @Test
+    public void hashCollisions() {
+        // "Aa" and "BB" have the same hash code
+        final String[] names = {"AaAa", "AaBB", "BBAa", "BBBB"};
+        final Map<String, LibraryEntry> expected = new HashMap<>();
+        LibraryTrie trie = LibraryTrie.EMPTY;
+        for (final String name : names) {
+            final LibraryEntry entry = newEntry(name);
+            expected.put(name, entry);
+            trie = trie.with(name, entry);
+        }
+        assertSameContent(expected, trie);
+        for (final String name : names) {
+            expected.remove(name);
+            trie = trie.without(name);
+            assertSameContent(expected, trie);
+        }
+        Assert.assertSame(LibraryTrie.EMPTY, trie);
+    }
+}
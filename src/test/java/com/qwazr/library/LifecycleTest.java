@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.qwazr.utils.ObjectMappers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LifecycleTest {
+
+    private static Path writeConfiguration(final int count, final String properties) throws IOException {
+        final StringBuilder json = new StringBuilder("{\"library\":{");
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                json.append(',');
+            json.append("\"slow").append(i).append("\":{\"class\":\"").append(CustomSlowLibrary.class.getName())
+                    .append('"').append(properties).append('}');
+        }
+        json.append("}}");
+        return Files.write(Files.createTempFile("library", ".json"), json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static LibraryManager.Builder builder(final Path etcFile) throws IOException {
+        return LibraryManager.of(Files.createTempDirectory("library-test")).etcFile(etcFile);
+    }
+
+    @Test
+    public void asyncLoad() throws IOException {
+        try (final LibraryManager libraryManager = builder(writeConfiguration(1, ",\"async_load_delay_ms\":100"))
+                .loadTimeout(Duration.ofSeconds(30))
+                .build()) {
+            final CustomSlowLibrary library = libraryManager.getLibrary("slow0");
+            Assert.assertTrue(library.loaded);
+        }
+    }
+
+    @Test
+    public void loadTimeout() throws IOException, JMException {
+        final Path etcFile = writeConfiguration(1, ",\"load_delay_ms\":60000,\"load_timeout_ms\":200");
+        final long start = System.nanoTime();
+        try {
+            builder(etcFile).jmxName("lifecycle-test").build();
+            Assert.fail("The load timeout has not been triggered");
+        }
+        catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("slow0"));
+        }
+        Assert.assertTrue(System.nanoTime() - start < Duration.ofSeconds(30).toNanos());
+        // The manager which failed to load is closed
+        Assert.assertTrue(ManagementFactory.getPlatformMBeanServer()
+                .queryNames(new ObjectName("com.qwazr.library:manager=\"lifecycle-test\",*"), null)
+                .isEmpty());
+    }
+
+    private static void assertClosedAfterLoadTimeout(final String json) throws IOException, InterruptedException {
+        final LibraryLifecycle lifecycle = new LibraryLifecycle(Duration.ofMillis(200), Duration.ofSeconds(5), 2);
+        try {
+            final CustomSlowLibrary library = ObjectMappers.JSON.readValue(json, CustomSlowLibrary.class);
+            try {
+                lifecycle.load("slow", library);
+                Assert.fail("The load timeout has not been triggered");
+            }
+            catch (IllegalStateException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("slow"));
+            }
+            final long timeout = System.currentTimeMillis() + 30_000;
+            while (!library.closed) {
+                Assert.assertTrue("Timeout", System.currentTimeMillis() < timeout);
+                Thread.sleep(50);
+            }
+            // The load has been cancelled
+            Thread.sleep(1000);
+            Assert.assertFalse(library.loaded);
+        }
+        finally {
+            lifecycle.close();
+        }
+    }
+
+    @Test
+    public void loadTimeoutClosesTheInstance() throws IOException, InterruptedException {
+        assertClosedAfterLoadTimeout("{\"load_delay_ms\":60000}");
+    }
+
+    @Test
+    public void asyncLoadTimeoutClosesTheInstance() throws IOException, InterruptedException {
+        assertClosedAfterLoadTimeout("{\"async_load_delay_ms\":1000}");
+    }
+
+    @Test
+    public void boundedClose() throws IOException, InterruptedException {
+        final LibraryManager libraryManager = builder(writeConfiguration(20, ",\"close_delay_ms\":60000"))
+                .closeTimeout(Duration.ofMillis(500))
+                .loadParallelism(4)
+                .build();
+        final List<CustomSlowLibrary> libraries = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            libraries.add(libraryManager.getLibrary("slow" + i));
+        final long start = System.nanoTime();
+        libraryManager.close();
+        // The libraries are closed concurrently: the close takes the close timeout, not 20 times the delay
+        Assert.assertTrue(System.nanoTime() - start < Duration.ofSeconds(30).toNanos());
+        // The abandoned closes are interrupted, the closes still waiting for a thread never start
+        final long timeout = System.currentTimeMillis() + 30_000;
+        int started = 0;
+        for (final CustomSlowLibrary library : libraries) {
+            if (!library.closed)
+                continue;
+            started++;
+            while (!library.closeInterrupted) {
+                Assert.assertTrue("Timeout", System.currentTimeMillis() < timeout);
+                Thread.sleep(50);
+            }
+        }
+        Assert.assertTrue(started > 0);
+        Assert.assertTrue(started <= Math.max(4, Runtime.getRuntime().availableProcessors()));
+        Thread.sleep(500);
+        int startedLater = 0;
+        for (final CustomSlowLibrary library : libraries)
+            if (library.closed)
+                startedLater++;
+        Assert.assertEquals(started, startedLater);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.qwazr.utils.ObjectMappers;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class ListTest {
+
+    private static LibraryManager libraryManager;
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(Paths.get("src/test/resources/etc/library.json"))
+                .build();
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        libraryManager.close();
+    }
+
+    private static JsonNode list(final String cursor, final Integer limit, final String prefix, final String klass)
+            throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        libraryManager.getService().listLibraries(cursor, limit, prefix, klass).write(output);
+        return ObjectMappers.JSON.readTree(output.toByteArray());
+    }
+
+    private static List<String> names(final JsonNode page) {
+        final List<String> names = new ArrayList<>();
+        page.get("libraries").forEach(library -> names.add(library.get("name").asText()));
+        return names;
+    }
+
+    @Test
+    public void pagination() throws IOException {
+        final JsonNode first = list(null, 2, null, null);
+        Assert.assertEquals(List.of("custom", "customAbstract"), names(first));
+        Assert.assertEquals("customAbstract", first.get("next").asText());
+        final JsonNode second = list(first.get("next").asText(), 2, null, null);
+        Assert.assertEquals(List.of("customPassword"), names(second));
+        Assert.assertFalse(second.has("next"));
+    }
+
+    @Test
+    public void librariesCopy() {
+        final Map<String, String> libraries = libraryManager.getLibraries();
+        Assert.assertEquals(List.of("custom", "customAbstract", "customPassword"), new ArrayList<>(libraries.keySet()));
+        // A copy, which does not follow the changes of the manager
+        libraries.clear();
+        Assert.assertEquals(3, libraryManager.getLibraries().size());
+    }
+
+    @Test
+    public void filters() throws IOException {
+        Assert.assertEquals(List.of("customAbstract"), names(list(null, null, "customA", null)));
+        Assert.assertEquals(List.of("customPassword"), names(list(null, null, "customP", null)));
+        Assert.assertEquals(List.of("customPassword"),
+                names(list(null, null, null, CustomPasswordLibrary.class.getName())));
+        Assert.assertEquals(List.of(), names(list(null, null, "unknown", null)));
+    }
+}
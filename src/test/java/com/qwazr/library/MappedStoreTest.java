@@ -0,0 +1,184 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class MappedStoreTest {
+
+    private static LibraryManager newLibraryManager(final Path dataDirectory) {
+        return LibraryManager.of(dataDirectory).etcFile(Paths.get("src/test/resources/etc/store.json")).build();
+    }
+
+    private static String toString(final ByteBuffer buffer) {
+        return buffer == null ? null : StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    private static byte[] value(final int i, final int version) {
+        return ("value-" + i + "-" + version).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void putGetDeleteAndReopen() throws IOException {
+        final Path dataDirectory = Files.createTempDirectory("library-test");
+        try (final LibraryManager libraryManager = newLibraryManager(dataDirectory)) {
+            final MappedStoreLibrary store = libraryManager.getLibrary("store");
+            for (int i = 0; i < 10000; i++)
+                store.put("key-" + i, value(i, 0));
+            Assert.assertEquals(10000, store.getSize());
+            final ByteBuffer buffer = store.get("key-42");
+            Assert.assertTrue(buffer.isReadOnly());
+            Assert.assertTrue(buffer.isDirect());
+            Assert.assertEquals("value-42-0", toString(buffer));
+            store.put("key-42", value(42, 1));
+            Assert.assertTrue(store.delete("key-43"));
+            Assert.assertFalse(store.delete("key-43"));
+            Assert.assertNull(store.get("unknown"));
+        }
+        try (final LibraryManager libraryManager = newLibraryManager(dataDirectory)) {
+            final MappedStoreLibrary store = libraryManager.getLibrary("store");
+            Assert.assertEquals(9999, store.getSize());
+            Assert.assertEquals("value-42-1", toString(store.get("key-42")));
+            Assert.assertNull(store.get("key-43"));
+            Assert.assertEquals("value-9999-0", toString(store.get("key-9999")));
+        }
+    }
+
+    @Test
+    public void compaction() throws IOException {
+        final Path dataDirectory = Files.createTempDirectory("library-test");
+        try (final LibraryManager libraryManager = newLibraryManager(dataDirectory)) {
+            final MappedStoreLibrary store = libraryManager.getLibrary("store");
+            for (int version = 0; version < 20; version++)
+                for (int i = 0; i < 2000; i++)
+                    store.put("key-" + i, value(i, version));
+            final ByteBuffer before = store.get("key-1");
+            final long fileSize = store.getFileSize();
+            store.compact();
+            Assert.assertTrue(store.getFileSize() <= fileSize);
+            Assert.assertEquals(2000, store.getSize());
+            Assert.assertEquals("value-1-19", toString(store.get("key-1")));
+            // A value read before the compaction is still readable
+            Assert.assertEquals("value-1-19", toString(before));
+        }
+        try (final LibraryManager libraryManager = newLibraryManager(dataDirectory)) {
+            final MappedStoreLibrary store = libraryManager.getLibrary("store");
+            Assert.assertEquals(2000, store.getSize());
+            Assert.assertEquals("value-1999-19", toString(store.get("key-1999")));
+        }
+        try (final java.util.stream.Stream<Path> files = Files.list(dataDirectory.resolve("stores/test"))) {
+            Assert.assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void interruptedCompaction() throws IOException {
+        final Path dataDirectory = Files.createTempDirectory("library-test");
+        final Path storeDirectory = dataDirectory.resolve("stores/test");
+        try (final LibraryManager libraryManager = newLibraryManager(dataDirectory)) {
+            final MappedStoreLibrary store = libraryManager.getLibrary("store");
+            for (int i = 0; i < 1000; i++)
+                store.put("key-" + i, value(i, 0));
+        }
+        // A compaction stopped before its rename leaves a partial temporary file of the next generation
+        final Path partial = storeDirectory.resolve("store-1.dat.tmp");
+        Files.write(partial, new byte[] { 0, 0, 0, 12, 0, 0, 0, 5 });
+        try (final LibraryManager libraryManager = newLibraryManager(dataDirectory)) {
+            final MappedStoreLibrary store = libraryManager.getLibrary("store");
+            Assert.assertEquals(1000, store.getSize());
+            Assert.assertEquals("value-999-0", toString(store.get("key-999")));
+            Assert.assertFalse(Files.exists(partial));
+            store.compact();
+            Assert.assertEquals(1000, store.getSize());
+        }
+        Assert.assertTrue(Files.exists(storeDirectory.resolve("store-1.dat")));
+        try (final java.util.stream.Stream<Path> files = Files.list(storeDirectory)) {
+            Assert.assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void corruptedHeader() throws IOException {
+        final Path dataDirectory = Files.createTempDirectory("library-test");
+        try (final LibraryManager libraryManager = newLibraryManager(dataDirectory)) {
+            final MappedStoreLibrary store = libraryManager.getLibrary("store");
+            for (int i = 0; i < 10; i++)
+                store.put("key-" + i, value(i, 0));
+        }
+        // Each record has a 12 bytes header, a 5 bytes key and a 9 bytes value.
+        // Lengths whose sum overflows an int are written in the header of the sixth record.
+        try (final FileChannel channel = FileChannel.open(dataDirectory.resolve("stores/test/store-0.dat"),
+                StandardOpenOption.WRITE)) {
+            final ByteBuffer header = ByteBuffer.allocate(Integer.BYTES * 2);
+            header.putInt(0x7FFFFFF0).putInt(0x7FFFFFF0).flip();
+            channel.write(header, 5 * 26);
+        }
+        try (final LibraryManager libraryManager = newLibraryManager(dataDirectory)) {
+            final MappedStoreLibrary store = libraryManager.getLibrary("store");
+            Assert.assertEquals(5, store.getSize());
+            Assert.assertEquals("value-4-0", toString(store.get("key-4")));
+            Assert.assertNull(store.get("key-5"));
+            store.put("key-5", value(5, 1));
+        }
+        try (final LibraryManager libraryManager = newLibraryManager(dataDirectory)) {
+            final MappedStoreLibrary store = libraryManager.getLibrary("store");
+            Assert.assertEquals(6, store.getSize());
+            Assert.assertEquals("value-5-1", toString(store.get("key-5")));
+        }
+    }
+
+    @Test
+    public void concurrentReadersDuringWrites() throws IOException, InterruptedException, ExecutionException {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (final LibraryManager libraryManager = newLibraryManager(Files.createTempDirectory("library-test"))) {
+            final MappedStoreLibrary store = libraryManager.getLibrary("store");
+            for (int i = 0; i < 100; i++)
+                store.put("key-" + i, value(i, 0));
+            final AtomicBoolean writing = new AtomicBoolean(true);
+            final Future<?>[] readers = new Future<?>[4];
+            for (int r = 0; r < readers.length; r++)
+                readers[r] = executor.submit(() -> {
+                    while (writing.get())
+                        for (int i = 0; i < 100; i++)
+                            Assert.assertTrue(toString(store.get("key-" + i)).startsWith("value-" + i + "-"));
+                });
+            for (int version = 1; version < 200; version++)
+                for (int i = 0; i < 100; i++)
+                    store.put("key-" + i, value(i, version));
+            writing.set(false);
+            for (final Future<?> reader : readers)
+                reader.get();
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+}
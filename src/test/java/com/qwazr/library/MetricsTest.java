@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.qwazr.library.annotations.Library;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class MetricsTest {
+
+    private final static Path LIBRARY_JSON = Paths.get("src/test/resources/etc/library.json");
+
+    @Library("custom")
+    private CustomLibrary custom;
+
+    @Test
+    public void histogramBuckets() {
+        for (long value : new long[] { 0, 1, 7, 8, 15, 16, 17, 1000, 123_456_789L, Long.MAX_VALUE }) {
+            final int index = LatencyHistogram.bucketIndex(value);
+            Assert.assertTrue(value <= LatencyHistogram.bucketUpperBound(index));
+            if (index > 0)
+                Assert.assertTrue(value > LatencyHistogram.bucketUpperBound(index - 1));
+        }
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++)
+            histogram.record(i * 1000);
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(100_000, histogram.getMax());
+        final long p50 = histogram.getPercentile(50);
+        Assert.assertTrue(p50 >= 50_000 && p50 <= 50_000 * 1.125);
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        try (final LibraryManager libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(LIBRARY_JSON)
+                .jmxName("metrics-test")
+                .build()) {
+            libraryManager.getLibrary("custom");
+            libraryManager.getService().inject(this);
+            libraryManager.loadLibrarySet(LIBRARY_JSON);
+
+            final LibraryMetrics.Report report = libraryManager.getService().getMetrics();
+            Assert.assertEquals(2, report.fileLoads);
+            final LibraryMetrics.LibraryReport customReport = report.libraries.get("custom");
+            Assert.assertEquals(1, customReport.lookups);
+            Assert.assertEquals(1, customReport.injections);
+            Assert.assertEquals(1, customReport.reloads);
+            Assert.assertEquals(2, customReport.loadTime.count);
+
+            final ObjectName objectName = new ObjectName(
+                    "com.qwazr.library:type=Library,manager=\"metrics-test\",name=\"custom\"");
+            Assert.assertEquals(1L,
+                    ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "LookupCount"));
+
+            // The statistics of a removed library are dropped
+            libraryManager.unloadLibrarySet(LIBRARY_JSON);
+            Assert.assertFalse(libraryManager.getService().getMetrics().libraries.containsKey("custom"));
+            Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+        }
+    }
+
+    @Test
+    public void failedLibraryHasNoStatistics() throws Exception {
+        try (final LibraryManager libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(LIBRARY_JSON)
+                .jmxName("metrics-failure-test")
+                .build()) {
+            try {
+                libraryManager.loadLibrarySet(Paths.get("src/test/resources/etc/failing.json"));
+                Assert.fail("The library has not failed");
+            }
+            catch (IllegalStateException e) {
+                // Expected
+            }
+            Assert.assertFalse(libraryManager.getService().getMetrics().libraries.containsKey("failing"));
+            Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(
+                    "com.qwazr.library:type=Library,manager=\"metrics-failure-test\",name=\"failing\"")));
+            Assert.assertTrue(libraryManager.getService().getMetrics().libraries.containsKey("custom"));
+        }
+    }
+}
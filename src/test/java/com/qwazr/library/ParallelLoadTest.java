@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+public class ParallelLoadTest {
+
+    private final static Path LIBRARY_JSON = Paths.get("src/test/resources/etc/library.json");
+    private final static Path PARALLEL_JSON = Paths.get("src/test/resources/etc/parallel.json");
+    private final static Path FAILING_JSON = Paths.get("src/test/resources/etc/failing.json");
+
+    @Test
+    public void parallelLoad() throws IOException {
+        final Path dataDirectory = Files.createTempDirectory("library-test");
+        try (final LibraryManager libraryManager = LibraryManager.of(dataDirectory)
+                .etcFile(PARALLEL_JSON)
+                .etcFile(LIBRARY_JSON)
+                .loadParallelism(4)
+                .build()) {
+            Assert.assertEquals(4, libraryManager.size());
+            final CustomLibrary parallelCustom = libraryManager.getLibrary("parallelCustom");
+            Assert.assertTrue(parallelCustom.isLoaded());
+            Assert.assertEquals(Integer.valueOf(24), parallelCustom.myParam);
+            // The greatest path wins whatever the loading order
+            final CustomLibrary custom = libraryManager.getLibrary("custom");
+            Assert.assertEquals(Integer.valueOf(36), custom.myParam);
+        }
+    }
+
+    @Test
+    public void parallelLoadFailure() throws IOException {
+        final Path dataDirectory = Files.createTempDirectory("library-test");
+        final String tag = UUID.randomUUID().toString();
+        // The failing library depends on the closeable one, which is always loaded first
+        final Path closeableJson = dataDirectory.resolve("closeable.json");
+        Files.write(closeableJson, ("{\"library\": {" +
+                "\"closeable\": {\"class\": \"" + CustomCloseableLibrary.class.getName() + "\", \"tag\": \"" + tag + "\"}," +
+                "\"dependentFailing\": {\"class\": \"" + FailingLibrary.class.getName() +
+                "\", \"dependencies\": [\"closeable\"]}" +
+                "}}").getBytes(StandardCharsets.UTF_8));
+        try {
+            LibraryManager.of(dataDirectory)
+                    .etcFile(LIBRARY_JSON)
+                    .etcFile(FAILING_JSON)
+                    .etcFile(PARALLEL_JSON)
+                    .etcFile(closeableJson)
+                    .loadParallelism(4)
+                    .build();
+            Assert.fail("The failing library should have been reported");
+        }
+        catch (IllegalStateException e) {
+            Assert.assertEquals("Failing library", e.getMessage());
+            // The libraries loaded before the failure have been closed
+            Assert.assertTrue(CustomCloseableLibrary.CLOSED_TAGS.contains(tag));
+        } finally {
+            deleteDirectory(dataDirectory);
+        }
+    }
+
+    private static void deleteDirectory(final Path directory) throws IOException {
+        try (final Stream<Path> paths = Files.walk(directory)) {
+            for (final Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                Files.deleteIfExists(path);
+        }
+    }
+}
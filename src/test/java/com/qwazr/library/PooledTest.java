@@ -0,0 +1,171 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PooledTest {
+
+    private LibraryManager libraryManager;
+    private CustomPooledLibrary pool;
+
+    @Before
+    public void setup() throws IOException {
+        libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(Paths.get("src/test/resources/etc/pooled.json"))
+                .build();
+        pool = libraryManager.getLibrary("pooled");
+    }
+
+    @After
+    public void cleanup() {
+        libraryManager.close();
+    }
+
+    @Test
+    public void sameThreadGetsSameObject() throws InterruptedException, TimeoutException {
+        Assert.assertEquals(1, pool.getPoolStats().size);
+        final CustomPooledLibrary.Resource first = pool.borrow();
+        pool.release(first);
+        final CustomPooledLibrary.Resource second = pool.borrow();
+        Assert.assertSame(first, second);
+        pool.release(second);
+        Assert.assertEquals(1, pool.getPoolStats().size);
+        Assert.assertEquals(1, pool.getPoolStats().idle);
+    }
+
+    @Test
+    public void waitForRelease() throws InterruptedException, TimeoutException, ExecutionException {
+        final CustomPooledLibrary.Resource first = pool.borrow();
+        final CustomPooledLibrary.Resource second = pool.borrow();
+        Assert.assertNotSame(first, second);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // The pool is full
+            try {
+                executor.submit(pool::borrow).get();
+                Assert.fail("The borrow should time out");
+            }
+            catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof TimeoutException);
+            }
+            Assert.assertEquals(1, pool.getPoolStats().timeouts);
+
+            final Future<CustomPooledLibrary.Resource> waiting = executor.submit(pool::borrow);
+            Thread.sleep(50);
+            pool.release(first);
+            Assert.assertSame(first, waiting.get());
+            Assert.assertEquals(1, pool.getPoolStats().waitTime.count);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void exclusiveUse() throws InterruptedException, ExecutionException {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final AtomicInteger conflicts = new AtomicInteger();
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++)
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        pool.apply(resource -> {
+                            if (!resource.inUse.compareAndSet(false, true))
+                                conflicts.incrementAndGet();
+                            Thread.yield();
+                            resource.inUse.set(false);
+                            return null;
+                        });
+                    }
+                    return null;
+                }));
+            for (final Future<?> future : futures)
+                future.get();
+        }
+        finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(0, conflicts.get());
+        Assert.assertTrue(pool.getPoolStats().size <= 2);
+        Assert.assertEquals(8000, pool.getPoolStats().borrows);
+    }
+
+    @Test
+    public void doubleReleaseIsRejected() throws InterruptedException, TimeoutException {
+        final CustomPooledLibrary.Resource resource = pool.borrow();
+        pool.release(resource);
+        try {
+            pool.release(resource);
+            Assert.fail("The second release should be rejected");
+        }
+        catch (IllegalStateException e) {
+            // Expected
+        }
+        final CustomPooledLibrary.Resource first = pool.borrow();
+        final CustomPooledLibrary.Resource second = pool.borrow();
+        Assert.assertNotSame(first, second);
+        pool.release(first);
+        pool.release(second);
+    }
+
+    @Test
+    public void statsInMetrics() throws InterruptedException, TimeoutException {
+        pool.release(pool.borrow());
+        final AbstractPooledLibrary.PoolStats stats = libraryManager.getMetrics().pools.get("pooled");
+        Assert.assertEquals(1, stats.size);
+        Assert.assertEquals(1, stats.borrows);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPoolSizes() throws IOException {
+        final Path etcFile = Files.write(Files.createTempFile("library", ".json"),
+                ("{\"library\":{\"pooled\":{\"class\":\"" + CustomPooledLibrary.class.getName() +
+                        "\",\"pool_min\":4,\"pool_max\":2}}}").getBytes(StandardCharsets.UTF_8));
+        LibraryManager.of(Files.createTempDirectory("library-test")).etcFile(etcFile).build().close();
+    }
+
+    @Test
+    public void closeDestroysObjects() throws InterruptedException, TimeoutException {
+        final CustomPooledLibrary.Resource borrowed = pool.borrow();
+        final CustomPooledLibrary.Resource other = pool.borrow();
+        pool.release(other);
+        libraryManager.close();
+        Assert.assertTrue(other.closed);
+        Assert.assertFalse(borrowed.closed);
+        pool.release(borrowed);
+        Assert.assertTrue(borrowed.closed);
+        Assert.assertEquals(0, pool.getPoolStats().size);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import io.undertow.security.idm.IdentityManager;
+import io.undertow.security.idm.PasswordCredential;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.ws.rs.InternalServerErrorException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+public class RealmTest {
+
+    private static Path etcFile;
+    private static LibraryManager libraryManager;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        etcFile = Files.createTempDirectory("library-realm").resolve("realm.json");
+        Files.copy(Paths.get("src/test/resources/etc/realm.json"), etcFile);
+        libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(etcFile)
+                .credentialCache(Duration.ofMinutes(1), 100)
+                .build();
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        libraryManager.close();
+    }
+
+    @Test
+    public void realmResolution() {
+        final IdentityManager identityManager = libraryManager.getIdentityManager("realm");
+        Assert.assertNotNull(identityManager);
+        Assert.assertSame(identityManager, libraryManager.getIdentityManager("realm"));
+        Assert.assertNull(libraryManager.getIdentityManager("unknown"));
+    }
+
+    @Test(expected = InternalServerErrorException.class)
+    public void notARealm() {
+        libraryManager.getIdentityManager("not_a_realm");
+    }
+
+    @Test
+    public void credentialCache() {
+        final CustomRealmLibrary realm = libraryManager.getLibrary("realm");
+        final IdentityManager identityManager = libraryManager.getIdentityManager("realm");
+        final int start = realm.verifications.get();
+        for (int i = 0; i < 10; i++)
+            Assert.assertNotNull(identityManager.verify("user", new PasswordCredential("secret".toCharArray())));
+        Assert.assertEquals(start + 1, realm.verifications.get());
+        // The failed verifications are not cached
+        for (int i = 0; i < 3; i++)
+            Assert.assertNull(identityManager.verify("user", new PasswordCredential("wrong".toCharArray())));
+        Assert.assertEquals(start + 4, realm.verifications.get());
+        // Another user with the same password is verified
+        Assert.assertNotNull(identityManager.verify("other", new PasswordCredential("secret".toCharArray())));
+        Assert.assertEquals(start + 5, realm.verifications.get());
+    }
+
+    @Test
+    public void reloadInvalidates() {
+        final IdentityManager before = libraryManager.getIdentityManager("realm");
+        Assert.assertNotNull(before.verify("user", new PasswordCredential("secret".toCharArray())));
+        libraryManager.loadLibrarySet(etcFile);
+        final IdentityManager after = libraryManager.getIdentityManager("realm");
+        Assert.assertNotSame(before, after);
+        final CustomRealmLibrary realm = libraryManager.getLibrary("realm");
+        Assert.assertEquals(0, realm.verifications.get());
+        Assert.assertNotNull(after.verify("user", new PasswordCredential("secret".toCharArray())));
+        Assert.assertEquals(1, realm.verifications.get());
+    }
+}
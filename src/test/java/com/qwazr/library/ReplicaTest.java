@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+public class ReplicaTest {
+
+    private static LibraryManager newLibraryManager() throws IOException {
+        return LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(Paths.get("src/test/resources/etc/replicas.json"))
+                .build();
+    }
+
+    private static LibraryInterface[] getInstances(final LibraryManager libraryManager, final String name) {
+        return libraryManager.getSnapshot().entries.get(name).instances;
+    }
+
+    @Test
+    public void replicasAreLoaded() throws IOException {
+        try (final LibraryManager libraryManager = newLibraryManager()) {
+            final LibraryInterface[] replicas = getInstances(libraryManager, "replicated");
+            Assert.assertEquals(4, replicas.length);
+            final Set<LibraryInterface> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (final LibraryInterface replica : replicas) {
+                final CustomReplicaLibrary library = (CustomReplicaLibrary) replica;
+                Assert.assertEquals(1, library.loads);
+                Assert.assertEquals("value", library.param);
+                Assert.assertSame(libraryManager, library.libraryManager);
+                distinct.add(library);
+            }
+            Assert.assertEquals(4, distinct.size());
+            Assert.assertEquals(Runtime.getRuntime().availableProcessors(),
+                    getInstances(libraryManager, "per_core").length);
+            Assert.assertEquals(1, getInstances(libraryManager, "single").length);
+        }
+    }
+
+    @Test
+    public void routing() throws IOException, InterruptedException {
+        try (final LibraryManager libraryManager = newLibraryManager()) {
+            final LibraryInterface first = libraryManager.getLibrary("replicated");
+            // The same thread always gets the same replica
+            for (int i = 0; i < 100; i++)
+                Assert.assertSame(first, libraryManager.getLibrary("replicated"));
+            final Set<LibraryInterface> used = Collections.synchronizedSet(
+                    Collections.newSetFromMap(new IdentityHashMap<>()));
+            final List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < 32; i++)
+                threads.add(new Thread(() -> used.add(libraryManager.getLibrary("replicated"))));
+            threads.forEach(Thread::start);
+            for (final Thread thread : threads)
+                thread.join();
+            Assert.assertTrue(used.size() > 1);
+        }
+    }
+
+    @Test
+    public void loadedReplicasAreClosedOnFailure() throws IOException, InterruptedException {
+        final String param = UUID.randomUUID().toString();
+        final String json = "{\"library\":{\"failing\":{\"class\":\"" + CustomReplicaLibrary.class.getName() +
+                "\",\"param\":\"" + param + "\",\"replicas\":3,\"fail_after_loads\":2}}}";
+        final Path etcFile =
+                Files.write(Files.createTempFile("library", ".json"), json.getBytes(StandardCharsets.UTF_8));
+        try {
+            LibraryManager.of(Files.createTempDirectory("library-test")).etcFile(etcFile).build().close();
+            Assert.fail("The replica has not failed");
+        }
+        catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(param));
+        }
+        final List<CustomReplicaLibrary> loaded = CustomReplicaLibrary.LOADED.remove(param);
+        Assert.assertEquals(2, loaded.size());
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        for (final CustomReplicaLibrary replica : loaded) {
+            while (!replica.closed && System.nanoTime() < deadline)
+                Thread.sleep(10);
+            Assert.assertTrue(replica.closed);
+        }
+    }
+
+    @Test
+    public void closeEveryReplica() throws IOException {
+        final LibraryInterface[] replicas;
+        try (final LibraryManager libraryManager = newLibraryManager()) {
+            replicas = getInstances(libraryManager, "replicated");
+        }
+        for (final LibraryInterface replica : replicas)
+            Assert.assertTrue(((CustomReplicaLibrary) replica).closed);
+    }
+}
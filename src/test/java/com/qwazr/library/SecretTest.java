@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.crypto.KeyGenerator;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SecretTest {
+
+    private static final AtomicInteger decryptions = new AtomicInteger();
+
+    private static LibraryManager libraryManager;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        final KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(256);
+        final AesSecretDecryptor aes = new AesSecretDecryptor(keyGenerator.generateKey());
+        final String shared = aes.encrypt("sharedSecret".getBytes(StandardCharsets.UTF_8));
+        final String other = aes.encrypt("otherSecret".getBytes(StandardCharsets.UTF_8));
+        final Path etcFile = Files.createTempDirectory("library-secret").resolve("secret.json");
+        Files.write(etcFile, ("{\"library\": {" +
+                "\"first\": {\"class\": \"" + CustomPasswordLibrary.class.getName() + "\", \"password\": \"" + shared + "\", \"password_encrypted\": true}," +
+                "\"second\": {\"class\": \"" + CustomPasswordLibrary.class.getName() + "\", \"password\": \"" + shared + "\", \"password_encrypted\": true}," +
+                "\"third\": {\"class\": \"" + CustomPasswordLibrary.class.getName() + "\", \"password\": \"" + other + "\", \"password_encrypted\": true}," +
+                "\"clear\": {\"class\": \"" + CustomPasswordLibrary.class.getName() + "\", \"password\": \"clearSecret\"}," +
+                "\"literal\": {\"class\": \"" + CustomPasswordLibrary.class.getName() + "\", \"password\": \"ENC(literal)\"}" +
+                "}}").getBytes(StandardCharsets.UTF_8));
+        libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(etcFile)
+                .secretDecryptor(cipherText -> {
+                    decryptions.incrementAndGet();
+                    return aes.decrypt(cipherText);
+                })
+                .build();
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        libraryManager.close();
+    }
+
+    private static String password(final String name) {
+        final CustomPasswordLibrary library = libraryManager.getLibrary(name);
+        return new String(library.getPassword());
+    }
+
+    @Test
+    public void decryptOnce() {
+        Assert.assertEquals("sharedSecret", password("first"));
+        Assert.assertEquals("sharedSecret", password("second"));
+        Assert.assertEquals("otherSecret", password("third"));
+        Assert.assertEquals("clearSecret", password("clear"));
+        // Decrypted at load time, once per distinct secret
+        Assert.assertEquals(2, decryptions.get());
+    }
+
+    @Test
+    public void clearPasswordLookingEncrypted() {
+        // Not marked as encrypted: the password is used as is
+        Assert.assertEquals("ENC(literal)", password("literal"));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.qwazr.utils.ObjectMappers;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+
+public class TemplateTest {
+
+    private static LibraryManager libraryManager;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(Paths.get("src/test/resources/etc/templates.json"))
+                .build();
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        libraryManager.close();
+    }
+
+    @Test
+    public void templatesAndVariables() {
+        final CustomTemplateLibrary first = libraryManager.getLibrary("first_endpoint");
+        Assert.assertEquals("http://localhost:8080/api", first.url);
+        Assert.assertEquals(Integer.valueOf(16), first.poolMax);
+        Assert.assertEquals(Long.valueOf(2500), first.timeout);
+        Assert.assertEquals(Arrays.asList("remote", "localhost"), first.tags);
+        Assert.assertEquals(Boolean.TRUE, first.options.get("retry"));
+        Assert.assertEquals("gzip", first.options.get("compression"));
+
+        final CustomTemplateLibrary second = libraryManager.getLibrary("second_endpoint");
+        Assert.assertEquals(Integer.valueOf(4), second.poolMax);
+        Assert.assertEquals(Boolean.TRUE, second.options.get("retry"));
+        Assert.assertEquals("none", second.options.get("compression"));
+        // The identical values are shared
+        Assert.assertSame(first.url, second.url);
+    }
+
+    @Test
+    public void externalVariables() throws IOException {
+        final JsonNode root = ObjectMappers.JSON.readTree(
+                "{\"variables\": {}, \"library\": {\"lib\": {\"url\": \"http://${HOST}/\", \"port\": \"${PORT:80}\"}}}");
+        final JsonNode resolved =
+                LibraryConfigurationResolver.resolve(root, Map.of("HOST", "example.com")::get);
+        Assert.assertEquals("http://example.com/", resolved.path("library").path("lib").path("url").asText());
+        Assert.assertEquals("80", resolved.path("library").path("lib").path("port").asText());
+    }
+
+    @Test
+    public void withoutVariablesNothingChanges() throws IOException {
+        final JsonNode root = ObjectMappers.JSON.readTree(
+                "{\"library\": {\"lib\": {\"text\": \"${literal}\", \"template\": \"<p>${name}</p>\"}}}");
+        Assert.assertSame(root, LibraryConfigurationResolver.resolve(root, name -> null));
+    }
+
+    @Test
+    public void escapedVariables() throws IOException {
+        final JsonNode root = ObjectMappers.JSON.readTree("{\"variables\": {\"name\": \"world\"}, " +
+                "\"library\": {\"lib\": {\"text\": \"$${literal} ${name}\", \"template\": \"$${name}\"}}}");
+        final JsonNode lib = LibraryConfigurationResolver.resolve(root, name -> null).path("library").path("lib");
+        Assert.assertEquals("${literal} world", lib.path("text").asText());
+        // Without "templates", "template" is a property of the library
+        Assert.assertEquals("${name}", lib.path("template").asText());
+    }
+
+    @Test
+    public void nestedDefaults() throws IOException {
+        final JsonNode root = ObjectMappers.JSON.readTree("{\"variables\": {\"default_port\": 8080}, " +
+                "\"library\": {\"lib\": " +
+                "{\"url\": \"http://${HOST:${DEFAULT_HOST:localhost}}:${PORT:${default_port}}/\", " +
+                "\"port\": \"${PORT:${default_port}}\"}}}");
+        final JsonNode lib = LibraryConfigurationResolver.resolve(root, name -> null).path("library").path("lib");
+        Assert.assertEquals("http://localhost:8080/", lib.path("url").asText());
+        Assert.assertEquals(8080, lib.path("port").intValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownVariable() throws IOException {
+        LibraryConfigurationResolver.resolve(
+                ObjectMappers.JSON.readTree("{\"variables\": {}, \"library\": {\"lib\": {\"text\": \"${unknown}\"}}}"),
+                name -> null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void circularTemplates() throws IOException {
+        LibraryConfigurationResolver.resolve(ObjectMappers.JSON.readTree(
+                "{\"templates\": {\"a\": {\"template\": \"b\"}, \"b\": {\"template\": \"a\"}}, " +
+                        "\"library\": {\"lib\": {\"template\": \"a\"}}}"), name -> null);
+    }
+}
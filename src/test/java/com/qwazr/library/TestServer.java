@@ -44,6 +44,7 @@ class TestServer implements BaseServer {
         final ApplicationBuilder webServices = ApplicationBuilder.of("/*").classes(RestApplication.JSON_CLASSES);
         libraryManager = new LibraryManager(configuration.dataDirectory, List.of(Paths.get("src/test/resources/etc/library.json")));
         webServices.singletons(libraryService = libraryManager.getService());
+        webServices.singletons(libraryManager.getJsonCacheFilter());
         libraryManager.getInstancesSupplier().registerInstance(LibraryServiceInterface.class, libraryService);
         builder.getWebServiceContext().jaxrs(webServices);
         builder.shutdownListener(server -> libraryManager.close());
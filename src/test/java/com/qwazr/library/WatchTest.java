@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015-2020 Emmanuel Keller / QWAZR
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.qwazr.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+public class WatchTest {
+
+    private static void writeConfiguration(final Path etcFile, final int myParam) throws IOException {
+        Files.write(etcFile, ("{\"library\":{\"custom\":{\"class\":\"" + CustomLibrary.class.getName() +
+                "\",\"myParam\":" + myParam + "}}}").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void waitFor(final BooleanSupplier condition) throws InterruptedException {
+        final long timeout = System.currentTimeMillis() + 30_000;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("Timeout", System.currentTimeMillis() < timeout);
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    public void reloadOnChange() throws IOException, InterruptedException {
+        final Path etcDirectory = Files.createTempDirectory("library-etc");
+        final Path etcFile = etcDirectory.resolve("library.json");
+        writeConfiguration(etcFile, 1);
+        try (final LibraryManager libraryManager = LibraryManager.of(Files.createTempDirectory("library-test"))
+                .etcFile(etcFile)
+                .watchEtcFiles(Duration.ofMillis(100))
+                .drainTimeout(Duration.ZERO)
+                .build()) {
+            final CustomLibrary first = libraryManager.getLibrary("custom");
+            Assert.assertEquals(Integer.valueOf(1), first.myParam);
+
+            writeConfiguration(etcFile, 2);
+            waitFor(() -> {
+                final CustomLibrary custom = libraryManager.getLibrary("custom");
+                return custom != first && Integer.valueOf(2).equals(custom.myParam);
+            });
+            Assert.assertTrue(((CustomLibrary) libraryManager.getLibrary("custom")).isLoaded());
+
+            Files.delete(etcFile);
+            waitFor(() -> !libraryManager.containsKey("custom"));
+        }
+    }
+}